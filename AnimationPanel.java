@@ -4,7 +4,19 @@
  *  ======================================================================
  *  AnimationPanel.java : Moves shapes around on the screen according to different paths.
  *  It is the main drawing area where shapes are added and manipulated.
- *  It also contains a popup menu to clear all shapes.
+ *  It also contains a popup menu to clear all shapes, to save and load scenes
+ *  and to record and replay the inputs.
+ *  The shapes belong to the simulation thread: changes made from the event
+ *  thread are submitted to the engine, and painting reads the engine's snapshots.
+ *  Every input which changes the world is applied in one place, where it can be
+ *  recorded in an InputLog, and replayed on the same ticks later.
+ *  Each frame only the parts of the panel where shapes were or now are get
+ *  repainted, unless so much has changed that one full repaint is cheaper.
+ *  Frames can instead be rendered actively: a Canvas covers the panel and the
+ *  repaint thread draws each frame into its BufferStrategy and shows it, with
+ *  no repaint manager or event thread in between.
+ *  The time taken by each phase is recorded in PerfMetrics, which can be shown
+ *  over the shapes and is published over JMX.
  *  ======================================================================
  */
 
@@ -12,58 +24,148 @@ import javax.swing.*;
 import java.awt.*;
 import java.util.*;
 import java.awt.event.*;
+import java.awt.image.BufferStrategy;
+import java.io.*;
 
 public class AnimationPanel extends JComponent implements Runnable {
   private Thread animationThread = null;	// the thread for animation
   private Vector<MovingShape> shapes;		// the vector to store all shapes
-  private int defaultShapeType,				// the default shape type
+  private SimulationEngine engine;			// steps the shapes at a fixed rate
+  private SnapshotBuffer snapshots;			// the frames published by the engine
+  private SpatialGrid index;				// finds the shapes near a point or rectangle
+  private SelectionSet selection;			// the selected shapes, on the simulation thread
+  private SpriteCache sprites = null;		// the pre-rasterised shapes, if the cache is on
+  private BatchRenderer batcher = null;		// draws the shapes grouped by type and colour, if batching is on
+  private TiledRenderer tiler = null;		// draws the shapes in tiles on every core, if tiling is on
+  private PerfMetrics metrics;				// the time taken by each phase
+  private boolean showMetrics = false;		// whether the metrics are drawn over the shapes
+  private String[] hudLines = new String[0];	// the metrics text being drawn
+  private long hudTime = 0;					// when the metrics text was made
+  private Rectangle hudBounds = new Rectangle();	// where the metrics were drawn
+  private long lastFrameStart = 0;			// when the last frame was painted
+  private static final Font HUD_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 11);
+  private static final Color HUD_BACKGROUND = new Color(255, 255, 255, 200);
+  private ArrayList<MovingShape> hits = new ArrayList<MovingShape>();	// the shapes found by the last query
+  private Point dragStart = null;			// where the mouse was pressed for a rubber band
+  private volatile Rectangle selectionBox = null;	// the rubber band being dragged, if any
+  private volatile int defaultShapeType,	// the default shape type, set on the simulation thread
     defaultPath, 							// the default path type
     defaultWidth = 20,						// the default width of a shape
   	defaultHeight = 20;						// the default height of a shape
-  private Color defaultFill = Color.blue,	// the default fill colour for a shape
+  private volatile Color defaultFill = Color.blue,	// the default fill colour for a shape
   	defaultBorder = Color.black;			// the default border colour for a shape
-  private int delay = 30;					// the default animation speed
+  private volatile int delay = 30;			// the default animation speed
+  private SplittableRandom random = new SplittableRandom();	// new shapes' generators are split from it, on the simulation thread
+  private InputLog recording = null;		// the inputs being recorded, if any, on the simulation thread
+  private long recordingStart;				// the tick the recording started on
+  private InputLog replay = null;			// the recording being replayed, if any, on the simulation thread
+  private int replayNext;					// the next input to replay
+  private long replayStart;					// the tick the replay started on
+  private ShapeSpawner spawner = new ShapeSpawner();	// makes the shapes added in bulk
+  private javax.swing.Timer stressTimer = null;	// grows the world while the frame budget is met, if the ramp is on
+  private JCheckBoxMenuItem stressItem;		// turns the stress ramp on and off
+  private String stressResult = null;		// what the last stress ramp found
+  public static final int STRESS_INTERVAL = 2000;	// the time between stress ramp steps in ms, long enough for a whole metrics interval
+  public static final int STRESS_MIN_SPAWN = 100;	// the fewest shapes a stress ramp step adds
+  private int frameDelay = 16;				// the time between repaints in ms
+  private FrameScheduler frames = new FrameScheduler(frameDelay * 1000000L, FrameScheduler.SKIP);	// times the repaints, never catching up
+  private double dirtyFraction = 0.5;		// the part of the panel changed above which it is all repainted
+  private DirtyRegion dirty = new DirtyRegion();	// the parts of the panel to repaint this frame
+  private WorldSnapshot paintFrame = null;	// the snapshot being painted, and how far through its step
+  private double paintAlpha = 1;
+  private Rectangle clipBounds = new Rectangle();	// the area being painted, reused
+  private Rectangle dirtyBounds = new Rectangle();	// the bounds of the dirty rectangles, reused
+  private java.awt.geom.Path2D.Float dirtyOutline = new java.awt.geom.Path2D.Float();	// the dirty rectangles as one clip, reused
+  private boolean dirtyOnly = false;		// whether the paint under way is only of the dirty rectangles
+  private volatile Canvas canvas = null;	// the canvas frames are rendered onto, if active rendering is on
+  private final Object frameLock = new Object();	// held while a frame is rendered actively
+  private MouseAdapter mouseHandler;		// handles the mouse over the panel and the canvas
+  private volatile boolean framePending = false;	// whether a frame is waiting for the event thread
+  private Runnable frameTask = new Runnable() {
+    public void run() {
+      framePending = false;
+      paintFrame();
+    }
+  };
   JPopupMenu popup;							// popup menu
+  private JFileChooser fileChooser = null;	// picks the scene and input files to save and load
 
    /** 
     * Constructor of the AnimationPanel
     */
    public AnimationPanel() {
     shapes = new Vector<MovingShape>();		//create the vector to store shapes
+    engine = new SimulationEngine(shapes, delay);
+    snapshots = engine.getSnapshots();
+    index = new SpatialGrid();
+    engine.setIndex(index);
+    selection = new SelectionSet();
+    metrics = new PerfMetrics();
+    engine.setMetrics(metrics);
+    metrics.register();
+    engine.setBeforeStep(new Runnable() {
+      public void run() {
+        replayInputs();
+      }
+    });
     popup = new JPopupMenu();				//create the popup menu
     makePopupMenu();
 
-    // add the mouse event to handle popup menu and create new shape
-    addMouseListener( new MouseAdapter() {
+    // add the mouse event to handle popup menu, rubber band selection and create new shape
+    mouseHandler = new MouseAdapter() {
       public void mousePressed(MouseEvent e) {
+        dragStart = e.isPopupTrigger() ? null : e.getPoint();
         maybeShowPopup(e);
       }
 
       public void mouseReleased(MouseEvent e) {
+        if (selectionBox != null) {		//select every shape touching the rubber band
+          selectShapes(selectionBox);
+          selectionBox = null;
+          repaint();
+        }
+        dragStart = null;
         maybeShowPopup(e);
       }
 
+      public void mouseDragged(MouseEvent e) {
+        if (dragStart != null && animationThread != null) {
+          Rectangle box = new Rectangle(dragStart);
+          box.add(e.getPoint());
+          selectionBox = box;
+          repaint();
+        }
+      }
+
       private void maybeShowPopup(MouseEvent e) {
         if (e.isPopupTrigger()) {
           popup.show(e.getComponent(), e.getX(), e.getY());
         }
       }
       public void mouseClicked( MouseEvent e ) {
-        if (animationThread != null) {		//if the animation has started, then
-          boolean found = false;
-          MovingShape currentShape = null;
-          for (int i = 0; i < shapes.size(); i++) {
-            currentShape = (MovingShape) shapes.elementAt(i);
-            if ( currentShape.contains( e.getPoint()) ) {		//if the mousepoint is within a shape, then set the shape to be selected/deselected
-              found = true;
-              currentShape.setSelected( ! currentShape.isSelected() );
-              System.out.println(currentShape);
-            }
-          }
-          if (! found) createNewShape(e.getX(), e.getY());		//if the mousepoint is not within a shape, then create a new one according to the mouse position
-        }
+        if (animationThread != null)		//if the animation has started, then
+          clickAt(e.getPoint());
       }
-    });
+    };
+    addMouseListener(mouseHandler);
+    addMouseMotionListener(mouseHandler);
+  }
+
+  /** 
+   * Select or deselect the shapes under a point, or create a new shape there if there are none
+   * @param pt 	the mouse position
+   */
+  protected void clickAt(Point pt) {
+    Insets insets = getInsets();
+    input(InputLog.CLICK, pt.x, pt.y, getWidth() - insets.left - insets.right, getHeight() - insets.top - insets.bottom);
+  }
+
+  /** 
+   * Select every shape whose bounds touch a rectangle
+   * @param r 	the rubber band rectangle
+   */
+  protected void selectShapes(Rectangle r) {
+    input(InputLog.SELECT, r.x, r.y, r.width, r.height);
   }
 
   /** 
@@ -72,51 +174,98 @@ public class AnimationPanel extends JComponent implements Runnable {
    * @param y	the y-coordinate of the mouse position
    */
   protected void createNewShape(int x, int y) {
-    // get the margin of the frame
     Insets insets = getInsets();
-    int marginWidth = getWidth() - insets.left - insets.right;
-    int marginHeight = getHeight() - insets.top - insets.bottom;
+    input(InputLog.ADD, x, y, getWidth() - insets.left - insets.right, getHeight() - insets.top - insets.bottom);
+  }
+
+  /**
+   * Add a number of shapes in one go, made by the panel's spawner
+   * @param n 	the number of shapes
+   */
+  public void spawnShapes(int n) {
+    spawnShapes(n, spawner);
+  }
+
+  /**
+   * Add a number of shapes in one go, at random places inside the panel.
+   * The panel's size is read once, and the shapes are made between two steps
+   * after making room for all of them.
+   * @param n 	the number of shapes
+   * @param s 	makes the shapes, and may be changed afterwards
+   */
+  public void spawnShapes(int n, ShapeSpawner s) {
+    Insets insets = getInsets();
+    int[] args = new int[3 + ShapeSpawner.ARGUMENTS];
+    args[0] = n;
+    args[1] = getWidth() - insets.left - insets.right;
+    args[2] = getHeight() - insets.top - insets.bottom;
+    System.arraycopy(s.getArguments(), 0, args, 3, ShapeSpawner.ARGUMENTS);
+    input(InputLog.SPAWN, args);
+  }
+
+  /**
+   * Return the spawner used by spawnShapes(n) and the stress ramp
+   * @return the spawner, which may be changed
+   */
+  public ShapeSpawner getSpawner() {
+    return spawner;
+  }
+
+  /** 
+   * Make a new shape with the current properties, without adding it.
+   * Only runs on the simulation thread, which owns the generator the shape's paths are split from.
+   * @param x 	the x-coordinate of the mouse position
+   * @param y	the y-coordinate of the mouse position
+   * @param marginWidth 	the margin width of the panel
+   * @param marginHeight 	the margin height of the panel
+   * @return the new shape
+   */
+  protected MovingShape makeShape(int x, int y, int marginWidth, int marginHeight) {
     // create a new shape dependent on all current properties and the mouse position
-    switch (defaultShapeType) {
-      case 0: {		//cirle
-        shapes.add( new MovingCircle(x, y, defaultWidth, defaultHeight, marginWidth, marginHeight, defaultFill, defaultBorder, defaultPath));
-        break;
-      }
-      case 1: {		//rectangle
-        shapes.add( new MovingRectangle(x, y, defaultWidth, defaultHeight, marginWidth, marginHeight, defaultFill, defaultBorder, defaultPath));
-        break;
-      }
-      case 2: {		//pacman
-        shapes.add( new MovingPacMan(x, y, defaultWidth, defaultHeight, marginWidth, marginHeight, defaultFill, defaultBorder, defaultPath));
-        break;    	  
-      }
-      case 3: {		//bowtie
-        shapes.add( new MovingBowTie(x, y, defaultWidth, defaultHeight, marginWidth, marginHeight, defaultFill, defaultBorder, defaultPath));
-        break;   
-      }
+    return MovingShape.create(defaultShapeType, x, y, defaultWidth, defaultHeight, marginWidth, marginHeight,
+      defaultFill, defaultBorder, defaultPath, random.split());
+  }
+
+  /** 
+   * Add a shape to the vector, the index and, while it is selected, the selection.
+   * Only runs on the simulation thread.
+   * @param newShape 	the shape to add
+   */
+  private void addShape(MovingShape newShape) {
+    if (newShape != null) {
+      shapes.add(newShape);
+      index.add(newShape);
+      newShape.setSelection(selection);
     }
   }
 
+  /** 
+   * Remove every shape from the vector, the index and the selection.
+   * Only runs on the simulation thread.
+   */
+  private void removeAllShapes() {
+    shapes.clear();
+    index.clear();
+    selection.clear();
+  }
+
   /** 
    * Set the default shape type
    * @param s	the new shape type
    */
   public void setDefaultShapeType(int s) {
-    defaultShapeType = s;
+    input(InputLog.SHAPE_TYPE, s);
   }
 
   /**
    * Set the default path type and the path type for all currently selected shapes
    * @param t	the new path type
+   * @throws IllegalArgumentException if t is not a path MovingShape.setPath takes
    */
   public void setDefaultPathType(int t) {
-    defaultPath = t;
-    MovingShape currentShape = null;
-    for (int i = 0; i < shapes.size(); i++) {
-      currentShape = (MovingShape) shapes.get(i);
-      if ( currentShape.isSelected())
-        currentShape.setPath(defaultPath);
-    }
+    if (!MovingShape.isPath(t))
+      throw new IllegalArgumentException("Unknown path " + t);
+    input(InputLog.PATH_TYPE, t);
   }
 
   /** 
@@ -124,13 +273,7 @@ public class AnimationPanel extends JComponent implements Runnable {
    * @param w	the new width value
    */
   public void setDefaultWidth(int w) {
-    MovingShape currentShape = null;
-    defaultWidth = w;
-    for (int i = 0; i < shapes.size(); i++) {
-      currentShape = (MovingShape) shapes.get(i);
-      if ( currentShape.isSelected())
-        currentShape.setWidth(defaultWidth);
-    }
+    input(InputLog.WIDTH, w);
   }
 
   /**
@@ -146,13 +289,7 @@ public class AnimationPanel extends JComponent implements Runnable {
    * @param h	the new height value
    */
   public void setDefaultHeight(int h) {
-    MovingShape currentShape = null;
-	defaultHeight = h;
-	for (int i = 0; i < shapes.size(); i++) {
-	  currentShape = (MovingShape) shapes.get(i);
-	  if ( currentShape.isSelected())
-	    currentShape.setHeight(defaultHeight);
-    }
+    input(InputLog.HEIGHT, h);
   }
 
   /**
@@ -168,13 +305,7 @@ public class AnimationPanel extends JComponent implements Runnable {
    * @param f	the new colour to set as the default
    */
   public void setDefaultFill(Color f){
-	  MovingShape currentShape = null;
-	  defaultFill = f;
-	  for (int i = 0; i < shapes.size(); i++) {
-	    currentShape = (MovingShape) shapes.get(i);
-	    if ( currentShape.isSelected())
-			currentShape.setFillColor(defaultFill);
-	  } 
+    input(InputLog.FILL, f.getRGB());
   }
   
   /**
@@ -182,20 +313,390 @@ public class AnimationPanel extends JComponent implements Runnable {
    * @param b	the new border colour to set as the default
    */
   public void setDefaultBorder(Color b){
-	  MovingShape currentShape = null;
-	  defaultBorder = b;
-	  for (int i = 0; i < shapes.size(); i++) {
-	    currentShape = (MovingShape) shapes.get(i);
-	    if ( currentShape.isSelected())
-	      currentShape.setBorderColor(defaultBorder);
-	  } 
+    input(InputLog.BORDER, b.getRGB());
+  }
+
+  /**
+   * Make a batch of property changes to all currently selected shapes at once,
+   * leaving the defaults as they are
+   * @param edit	the changes, which may be changed afterwards
+   */
+  public void applyToSelection(ShapeEdit edit) {
+    input(InputLog.EDIT, edit.getArguments());
   }
   
  /** 
   * Remove all shapes from our vector
   */
   public void clearAllShapes() {
-    shapes.clear();
+    input(InputLog.CLEAR);
+  }
+
+  /**
+   * Pass an input to the simulation thread to apply between steps,
+   * unless a recording is being replayed, which the user cannot change
+   * @param kind 	InputLog.CLICK to InputLog.EDIT
+   * @param args 	the arguments of the input
+   */
+  private void input(final int kind, final int... args) {
+    engine.submit(new Runnable() {
+      public void run() {
+        if (replay == null)
+          apply(kind, args);
+      }
+    });
+  }
+
+  /**
+   * Make an input's change to the world, recording it if a recording is on.
+   * Only runs on the simulation thread.
+   * @param kind 	InputLog.CLICK to InputLog.EDIT
+   * @param a 	the arguments of the input
+   */
+  private void apply(int kind, int[] a) {
+    if (recording != null)
+      recording.add(engine.getTicks() - recordingStart, kind, a);
+    switch (kind) {
+      case InputLog.CLICK : {
+        Point pt = new Point(a[0], a[1]);
+        boolean found = false;
+        MovingShape currentShape = null;
+        long start = System.nanoTime();
+        hits.clear();
+        index.query(pt, hits);		//only the shapes whose bounds cover the point can contain it
+        for (int i = 0; i < hits.size(); i++) {
+          currentShape = hits.get(i);
+          if ( currentShape.contains(pt) ) {		//if the mousepoint is within a shape, then set the shape to be selected/deselected
+            found = true;
+            currentShape.setSelected( ! currentShape.isSelected() );
+            System.out.println(currentShape);
+          }
+        }
+        metrics.record(PerfMetrics.HIT_TEST, System.nanoTime() - start);
+        if (! found) addShape(makeShape(a[0], a[1], a[2], a[3]));		//if the mousepoint is not within a shape, then add a new one
+        break;
+      }
+      case InputLog.ADD :
+        addShape(makeShape(a[0], a[1], a[2], a[3]));
+        break;
+      case InputLog.SELECT : {
+        long start = System.nanoTime();
+        hits.clear();
+        index.query(new Rectangle(a[0], a[1], a[2], a[3]), hits);
+        for (int i = 0; i < hits.size(); i++)
+          hits.get(i).setSelected(true);
+        metrics.record(PerfMetrics.HIT_TEST, System.nanoTime() - start);
+        break;
+      }
+      case InputLog.SHAPE_TYPE :
+        defaultShapeType = a[0];
+        break;
+      case InputLog.PATH_TYPE :
+        defaultPath = a[0];
+        for (int i = 0; i < selection.size(); i++)
+          selection.get(i).setPath(defaultPath);
+        break;
+      case InputLog.WIDTH :
+      case InputLog.HEIGHT :
+        if (kind == InputLog.WIDTH)
+          defaultWidth = a[0];
+        else
+          defaultHeight = a[0];
+        for (int i = 0; i < selection.size(); i++) {
+          MovingShape currentShape = selection.get(i);
+          if (kind == InputLog.WIDTH)
+            currentShape.setWidth(a[0]);
+          else
+            currentShape.setHeight(a[0]);
+          index.update(currentShape);
+        }
+        break;
+      case InputLog.FILL :
+        defaultFill = new Color(a[0], true);
+        for (int i = 0; i < selection.size(); i++)
+          selection.get(i).setFillColor(defaultFill);
+        break;
+      case InputLog.BORDER :
+        defaultBorder = new Color(a[0], true);
+        for (int i = 0; i < selection.size(); i++)
+          selection.get(i).setBorderColor(defaultBorder);
+        break;
+      case InputLog.EDIT : {
+        ShapeEdit edit = new ShapeEdit(a, 0);
+        for (int i = 0; i < selection.size(); i++) {
+          MovingShape currentShape = selection.get(i);
+          edit.applyTo(currentShape);
+          if (edit.changesSize())
+            index.update(currentShape);
+        }
+        break;
+      }
+      case InputLog.SPEED :
+        delay = a[0];
+        engine.setStepMillis(delay);	// the running threads keep going at the new rate
+        break;
+      case InputLog.CLEAR :
+        removeAllShapes();
+        break;
+      case InputLog.MARGIN :
+        for (int i = 0; i < shapes.size(); i++)
+          shapes.elementAt(i).setMarginSize(a[0], a[1]);
+        break;
+      case InputLog.COLLISIONS :
+        engine.setCollisions(a[0] != 0);
+        break;
+      case InputLog.SPAWN : {
+        int from = shapes.size();
+        shapes.ensureCapacity(from + a[0]);		//make room once for all of them
+        index.ensureCapacity(from + a[0]);
+        new ShapeSpawner(a, 3).spawn(a[0], a[1], a[2], random, shapes);
+        for (int i = from; i < shapes.size(); i++) {
+          index.add(shapes.get(i));
+          shapes.get(i).setSelection(selection);
+        }
+        break;
+      }
+    }
+  }
+
+  /**
+   * Empty the world and record the inputs from now on. The world's random values
+   * start again from a seed, so that replaying the recording makes the same shapes.
+   * @param seed 	the seed of the world's random values
+   */
+  public void startRecording(final long seed) {
+    Insets insets = getInsets();
+    final int marginWidth = getWidth() - insets.left - insets.right;
+    final int marginHeight = getHeight() - insets.top - insets.bottom;
+    engine.submit(new Runnable() {
+      public void run() {
+        replay = null;
+        removeAllShapes();
+        random = new SplittableRandom(seed);
+        recording = new InputLog(seed);
+        recordingStart = engine.getTicks();
+        // record the settings the inputs start from
+        apply(InputLog.MARGIN, new int[] { marginWidth, marginHeight });
+        apply(InputLog.SHAPE_TYPE, new int[] { defaultShapeType });
+        apply(InputLog.PATH_TYPE, new int[] { defaultPath });
+        apply(InputLog.WIDTH, new int[] { defaultWidth });
+        apply(InputLog.HEIGHT, new int[] { defaultHeight });
+        apply(InputLog.FILL, new int[] { defaultFill.getRGB() });
+        apply(InputLog.BORDER, new int[] { defaultBorder.getRGB() });
+        apply(InputLog.SPEED, new int[] { delay });
+        apply(InputLog.COLLISIONS, new int[] { engine.getCollisions() ? 1 : 0 });
+      }
+    });
+  }
+
+  /**
+   * Stop recording the inputs, and save what was recorded
+   * @param file 	the file to save the recording to, or null to throw it away
+   */
+  public void stopRecording(final File file) {
+    engine.submit(new Runnable() {
+      public void run() {
+        final InputLog log = recording;
+        recording = null;
+        if (log == null || file == null)
+          return;
+        new Thread("InputSaver") {
+          public void run() {
+            try {
+              log.save(file);
+            } catch (IOException e) {
+              showFileError("Could not save " + file.getName() + ": " + e.getMessage());
+            }
+          }
+        }.start();
+      }
+    });
+  }
+
+  /**
+   * Empty the world and replay a recording into it, each input on the tick it was
+   * recorded on. The user's own inputs are ignored until the recording ends.
+   * @param log 	the recording
+   */
+  public void replay(final InputLog log) {
+    engine.submit(new Runnable() {
+      public void run() {
+        recording = null;
+        removeAllShapes();
+        random = new SplittableRandom(log.getSeed());
+        replay = log;
+        replayNext = 0;
+        replayStart = engine.getTicks();
+      }
+    });
+  }
+
+  /**
+   * Apply the replayed inputs due on this tick. Runs on the simulation thread before each step.
+   */
+  private void replayInputs() {
+    InputLog log = replay;
+    if (log == null)
+      return;
+    long tick = engine.getTicks() - replayStart;
+    while (replayNext < log.size() && log.getTick(replayNext) <= tick) {
+      apply(log.getKind(replayNext), log.getArguments(replayNext));
+      replayNext++;
+    }
+    if (replayNext == log.size())
+      replay = null;		// the run carries on from where the recording ended
+  }
+
+  /**
+   * Save all shapes, with the state of their paths, to a scene file.
+   * The shapes are copied between steps and written on a thread of their own.
+   * @param file 	the file to write
+   */
+  public void saveScene(final File file) {
+    Insets insets = getInsets();
+    final ShapeStore store = new ShapeStore(shapes.size(), getWidth() - insets.left - insets.right,
+      getHeight() - insets.top - insets.bottom);
+    engine.submit(new Runnable() {
+      public void run() {
+        for (int i = 0; i < shapes.size(); i++)
+          store.add(shapes.elementAt(i));
+        new Thread("SceneSaver") {
+          public void run() {
+            try {
+              SceneIO.save(store, file);
+            } catch (IOException e) {
+              showFileError("Could not save " + file.getName() + ": " + e.getMessage());
+            }
+          }
+        }.start();
+      }
+    });
+  }
+
+  /**
+   * Replace all shapes with those of a scene file. The file is read on a thread of its
+   * own and each chunk of shapes joins the animation as soon as it has been read.
+   * The chunks are handed to the engine from the event thread, so a stopped engine
+   * adds them there rather than on the reading thread.
+   * Like the other inputs, a scene is ignored while a recording is being replayed.
+   * A scene is not an input a recording can hold, so it is refused while input is
+   * recorded, and the rest of a scene is dropped once a recording or replay starts.
+   * @param file 	the file to read
+   */
+  public void loadScene(final File file) {
+    Insets insets = getInsets();
+    final int marginWidth = getWidth() - insets.left - insets.right;
+    final int marginHeight = getHeight() - insets.top - insets.bottom;
+    engine.submit(new Runnable() {
+      public void run() {
+        if (replay != null)		// the replay must see only the recorded inputs
+          return;
+        if (recording != null) {
+          showFileError("Could not load " + file.getName() + " while input is being recorded");
+          return;
+        }
+        removeAllShapes();
+        new Thread("SceneLoader") {
+          public void run() {
+            try {
+              SceneIO.load(file, marginWidth, marginHeight, new SceneIO.ChunkListener() {
+                public void loaded(final java.util.List<MovingShape> chunk) {
+                  SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                      engine.submit(new Runnable() {
+                        public void run() {
+                          if (replay != null || recording != null)	// the world now only changes by recorded inputs
+                            return;
+                          for (int i = 0; i < chunk.size(); i++)
+                            addShape(chunk.get(i));
+                        }
+                      });
+                    }
+                  });
+                }
+              });
+            } catch (IOException e) {
+              showFileError("Could not load " + file.getName() + ": " + e.getMessage());
+            }
+          }
+        }.start();
+      }
+    });
+  }
+
+  /**
+   * Keep adding shapes while each frame is painted and each step is taken within
+   * its budget, then stop and report the shape count which broke it. The shapes
+   * added grow by a quarter of the world each step, so the limit is found quickly.
+   * Only runs on the event thread.
+   */
+  public void startStressRamp() {
+    stopStressRamp();
+    stressResult = "stress ramp running";
+    stressTimer = new javax.swing.Timer(STRESS_INTERVAL, new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        stressStep();
+      }
+    });
+    stressTimer.start();
+    stressItem.setSelected(true);
+    hudTime = 0;
+  }
+
+  /**
+   * Stop the stress ramp, keeping the shapes it added
+   */
+  public void stopStressRamp() {
+    if (stressTimer != null)
+      stressTimer.stop();
+    stressTimer = null;
+    stressItem.setSelected(false);
+  }
+
+  /**
+   * Return what the last stress ramp found
+   * @return the shape count at which the frame budget was broken, or null if no ramp has finished
+   */
+  public String getStressResult() {
+    return stressResult;
+  }
+
+  /**
+   * Look at the last whole interval's timings and add more shapes if they were within budget
+   */
+  private void stressStep() {
+    double paint = metrics.getPaintP99Micros() / 1000, move = metrics.getMoveP99Micros() / 1000;
+    int n = metrics.getShapeCount();
+    if (paint > frameDelay || move > delay) {
+      stressResult = String.format("frame budget broken at %d shapes: paint p99 %.2f ms of %d, move p99 %.2f ms of %d",
+        n, paint, frameDelay, move, delay);
+      stopStressRamp();
+    } else {
+      spawnShapes(Math.max(STRESS_MIN_SPAWN, n / 4));
+    }
+    hudTime = 0;
+  }
+
+  /**
+   * Return the chooser for scene and input files, made the first time it is needed
+   * @return the file chooser
+   */
+  private JFileChooser fileChooser() {
+    if (fileChooser == null)
+      fileChooser = new JFileChooser();
+    return fileChooser;
+  }
+
+  /**
+   * Tell the user a file could not be saved or loaded, from any thread
+   * @param message 	what went wrong
+   */
+  private void showFileError(final String message) {
+    SwingUtilities.invokeLater(new Runnable() {
+      public void run() {
+        JOptionPane.showMessageDialog(AnimationPanel.this, message, "Animation", JOptionPane.ERROR_MESSAGE);
+      }
+    });
   }
 
   /** 
@@ -211,6 +712,118 @@ public class AnimationPanel extends JComponent implements Runnable {
       }
     });
     popup.add(menuItem);
+   // save and load scenes
+    menuItem = new JMenuItem("Save Scene...");
+    menuItem.addActionListener( new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        if (fileChooser().showSaveDialog(AnimationPanel.this) == JFileChooser.APPROVE_OPTION)
+          saveScene(fileChooser().getSelectedFile());
+      }
+    });
+    popup.add(menuItem);
+    menuItem = new JMenuItem("Load Scene...");
+    menuItem.addActionListener( new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        if (fileChooser().showOpenDialog(AnimationPanel.this) == JFileChooser.APPROVE_OPTION)
+          loadScene(fileChooser().getSelectedFile());
+      }
+    });
+    popup.add(menuItem);
+   // record the inputs from an empty world, and replay them
+    final JCheckBoxMenuItem recordItem = new JCheckBoxMenuItem("Record Input");
+    recordItem.addActionListener( new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        if (recordItem.isSelected())
+          startRecording(System.nanoTime());
+        else if (fileChooser().showSaveDialog(AnimationPanel.this) == JFileChooser.APPROVE_OPTION)
+          stopRecording(fileChooser().getSelectedFile());
+        else
+          stopRecording(null);
+      }
+    });
+    popup.add(recordItem);
+    menuItem = new JMenuItem("Replay Input...");
+    menuItem.addActionListener( new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        if (fileChooser().showOpenDialog(AnimationPanel.this) != JFileChooser.APPROVE_OPTION)
+          return;
+        File file = fileChooser().getSelectedFile();
+        try {
+          recordItem.setSelected(false);
+          replay(InputLog.load(file));
+        } catch (IOException ex) {
+          showFileError("Could not load " + file.getName() + ": " + ex.getMessage());
+        }
+      }
+    });
+    popup.add(menuItem);
+   // add shapes in bulk, or until the frame budget is used up
+    menuItem = new JMenuItem("Spawn 1000 Shapes");
+    menuItem.addActionListener( new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        spawnShapes(1000);
+      }
+    });
+    popup.add(menuItem);
+    stressItem = new JCheckBoxMenuItem("Stress Ramp");
+    stressItem.addActionListener( new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        if (stressItem.isSelected())
+          startStressRamp();
+        else
+          stopStressRamp();
+      }
+    });
+    popup.add(stressItem);
+   // shapes bounce off each other
+    final JCheckBoxMenuItem collisionItem = new JCheckBoxMenuItem("Collisions");
+    collisionItem.addActionListener( new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        input(InputLog.COLLISIONS, collisionItem.isSelected() ? 1 : 0);
+      }
+    });
+    popup.add(collisionItem);
+   // draw shapes from pre-rasterised sprites
+    final JCheckBoxMenuItem spriteItem = new JCheckBoxMenuItem("Sprite Cache");
+    spriteItem.addActionListener( new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        sprites = spriteItem.isSelected() ? new SpriteCache() : null;
+        repaint();
+      }
+    });
+    popup.add(spriteItem);
+   // draw the shapes in tiles on every core
+    final JCheckBoxMenuItem tileItem = new JCheckBoxMenuItem("Tiled Drawing");
+    tileItem.addActionListener( new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        synchronized (frameLock) {		// the repaint thread may be drawing with it
+          if (tiler != null)
+            tiler.shutdown();
+          tiler = tileItem.isSelected() ? new TiledRenderer() : null;
+        }
+        repaint();
+      }
+    });
+    popup.add(tileItem);
+   // draw and show the frames on the repaint thread
+    final JCheckBoxMenuItem activeItem = new JCheckBoxMenuItem("Active Rendering");
+    activeItem.addActionListener( new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        activeItem.setSelected(setActiveRendering(activeItem.isSelected()));
+      }
+    });
+    popup.add(activeItem);
+   // show the performance metrics over the shapes
+    final JCheckBoxMenuItem metricsItem = new JCheckBoxMenuItem("Performance HUD");
+    metricsItem.addActionListener( new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        showMetrics = metricsItem.isSelected();
+        hudTime = 0;
+        dirty.markAll();
+        repaint();
+      }
+    });
+    popup.add(metricsItem);
    }
 
   /** 
@@ -218,10 +831,7 @@ public class AnimationPanel extends JComponent implements Runnable {
    */
   public void resetMarginSize() {
     Insets insets = getInsets();
-    int marginWidth = getWidth() - insets.left - insets.right;
-    int marginHeight = getHeight() - insets.top - insets.bottom ;
-     for (int i = 0; i < shapes.size(); i++)
-      ((MovingShape) shapes.elementAt(i)).setMarginSize(marginWidth, marginHeight);
+    input(InputLog.MARGIN, getWidth() - insets.left - insets.right, getHeight() - insets.top - insets.bottom);
   }
 
   /**  
@@ -233,15 +843,268 @@ public class AnimationPanel extends JComponent implements Runnable {
   }
 
   /**  
-   * Move and paint all shapes within the animation area
+   * Paint the newest snapshot of all shapes within the animation area,
+   * part way between their last two simulated positions
    * @param g	the Graphics control
    */
   public void paintComponent(Graphics g) {
-    MovingShape currentShape;
-    for (int i = 0; i < shapes.size(); i++) {
-      currentShape = (MovingShape) shapes.elementAt(i);
-      currentShape.move();
-      currentShape.draw(g);
+    if (canvas != null) {		// the canvas covers the panel
+      if (animationThread == null)
+        canvas.repaint();
+      return;
+    }
+    synchronized (frameLock) {		// the only snapshot reader, as in renderActive
+      if (paintFrame == null || animationThread == null) {	// not animating: show the newest snapshot
+        paintFrame = snapshots.acquire();
+        paintAlpha = paintFrame.getAlpha(System.nanoTime());
+        dirty.markAll();
+      }
+      if (dirtyOnly) {		// leave the space between the dirty rectangles alone
+        g = g.create();
+        ((Graphics2D) g).clip(dirty.getOutline(dirtyOutline));
+      }
+      if (tiler == null) {		// clear where the shapes were, as the tiles do for themselves
+        clipBounds.setBounds(0, 0, getWidth(), getHeight());
+        Rectangle clip = g.getClipBounds(clipBounds);	// left as the panel if there is no clip
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+      }
+      drawFrame(g);
+      if (dirtyOnly)
+        g.dispose();
+    }
+  }
+
+  /**  
+   * Draw the shapes grouped by type and colour. Batching is experimental and
+   * not on the popup menu, as it is no faster than drawing shape by shape on
+   * the software pipeline. Only the event thread may call this.
+   * @param b 	the batch renderer, or null to draw shape by shape
+   */
+  public void setBatcher(BatchRenderer b) {
+    batcher = b;
+    repaint();
+  }
+
+  /**  
+   * Draw the snapshot being painted, the rubber band and the metrics
+   * @param g	the Graphics control
+   */
+  private void drawFrame(Graphics g) {
+    ShapeStore frameShapes = paintFrame.getShapes();
+    ShapeStore.Painter painter = frameShapes.getPainter();
+    painter.setSprites(sprites);
+    long start = System.nanoTime();
+    if (tiler != null) {
+      tiler.setSprites(sprites);
+      tiler.draw(g, frameShapes, paintAlpha, getWidth(), getHeight(), getBackground());
+    } else if (batcher != null) {
+      batcher.draw(g, frameShapes, paintAlpha);
+    } else {
+      clipBounds.setBounds(Integer.MIN_VALUE / 2, Integer.MIN_VALUE / 2, Integer.MAX_VALUE, Integer.MAX_VALUE);
+      Rectangle clip = g.getClipBounds(clipBounds);	// left as everything if there is no clip
+      for (int i = 0; i < frameShapes.size(); i++)
+        if (frameShapes.intersects(i, clip) && (!dirtyOnly || dirty.intersects(frameShapes, i)))	// skip the shapes off the panel or outside the dirty region
+          painter.drawInterpolated(g, i, paintAlpha);
+    }
+    metrics.record(PerfMetrics.DRAW, System.nanoTime() - start);
+    Rectangle box = selectionBox;
+    if (box != null) {
+      g.setColor(Color.gray);
+      g.drawRect(box.x, box.y, box.width, box.height);
+    }
+    if (showMetrics)
+      drawMetrics(g);
+  }
+
+  /**  
+   * Draw the frame rate, shape count, allocation rate and the times of each
+   * phase in the top left corner. The text is remade four times a second.
+   * @param g	the Graphics control
+   */
+  private void drawMetrics(Graphics g) {
+    long now = System.nanoTime();
+    if (now - hudTime > 250000000L) {
+      hudTime = now;
+      hudLines = new String[PerfMetrics.PHASE_NAMES.length + (stressResult != null ? 2 : 1)];
+      hudLines[0] = String.format("%.1f fps  %d shapes  %.1f MB/s allocated",
+        metrics.getFps(), metrics.getShapeCount(), metrics.getAllocationRate());
+      for (int k = 0; k < PerfMetrics.PHASE_NAMES.length; k++) {
+        PerfMetrics.Histogram.Snapshot h = metrics.getSnapshot(k);
+        hudLines[k + 1] = String.format("%-8s p50 %7.3f  p99 %7.3f  max %7.3f ms", PerfMetrics.PHASE_NAMES[k],
+          h.getPercentile(0.5) / 1e6, h.getPercentile(0.99) / 1e6, h.getMax() / 1e6);
+      }
+      if (stressResult != null)
+        hudLines[hudLines.length - 1] = stressResult;
+    }
+    g.setFont(HUD_FONT);
+    FontMetrics fm = g.getFontMetrics();
+    int width = 0;
+    for (String line : hudLines)
+      width = Math.max(width, fm.stringWidth(line));
+    hudBounds.setBounds(4, 4, width + 8, hudLines.length * fm.getHeight() + 8);
+    g.setColor(HUD_BACKGROUND);
+    g.fillRect(hudBounds.x, hudBounds.y, hudBounds.width, hudBounds.height);
+    g.setColor(Color.black);
+    for (int k = 0; k < hudLines.length; k++)
+      g.drawString(hudLines[k], hudBounds.x + 4, hudBounds.y + 4 + fm.getAscent() + k * fm.getHeight());
+  }
+
+  /** 
+   * Set how much of the panel the changed parts may cover before a frame
+   * repaints all of it instead of just the changed parts
+   * @param fraction 	the fraction of the panel's area, from 0 to 1
+   */
+  public void setDirtyFraction(double fraction) {
+    dirtyFraction = fraction;
+  }
+
+  /** 
+   * Paint the newest snapshot on the event thread, repainting only where
+   * shapes were last painted and where they are now. A frame queued before
+   * active rendering was turned on is dropped, as the repaint thread now reads
+   * the snapshots, and the snapshot is taken under frameLock so there is only
+   * ever one reader.
+   */
+  private void paintFrame() {
+    synchronized (frameLock) {
+      if (canvas == null)
+        paintDirty();
+    }
+  }
+
+  /** 
+   * Paint the parts of the panel which changed since the last frame. Only paintFrame may call this.
+   */
+  private void paintDirty() {
+    long start = System.nanoTime();
+    if (lastFrameStart != 0)
+      metrics.record(PerfMetrics.FRAME, start - lastFrameStart);
+    lastFrameStart = start;
+    WorldSnapshot frame = snapshots.acquire();
+    ShapeStore frameShapes = frame.getShapes();
+    ShapeStore.Painter painter = frameShapes.getPainter();
+    double alpha = frame.getAlpha(System.nanoTime());
+    int n = frameShapes.size();
+    dirty.begin(n);
+    for (int i = 0; i < n; i++) {
+      MovingShape s = painter.load(i);
+      // the handles stick out two pixels and the border one
+      dirty.mark(i, s.getInterpolatedX(alpha) - 2, s.getInterpolatedY(alpha) - 2, s.getWidth() + 5, s.getHeight() + 5);
+    }
+    if (showMetrics)
+      dirty.add(hudBounds.x, hudBounds.y, hudBounds.width, hudBounds.height);
+    dirty.end(n);
+    metrics.setShapeCount(n);
+    paintFrame = frame;
+    paintAlpha = alpha;
+    // one paint a frame, under the bounds of the dirty rectangles but clipped to the rectangles themselves,
+    // so the shapes are only looked through once and the space between the rectangles is left alone
+    if (dirty.takeAll() || dirty.getArea() > dirtyFraction * getWidth() * getHeight())
+      paintImmediately(0, 0, getWidth(), getHeight());
+    else if (dirty.size() > 0) {
+      dirtyOnly = true;
+      try {
+        paintImmediately(dirty.getBounds(dirtyBounds));
+      } finally {
+        dirtyOnly = false;
+      }
+    }
+    metrics.record(PerfMetrics.PAINT, System.nanoTime() - start);
+  }
+
+  /** 
+   * Turn active rendering on or off. When it is on a Canvas covers the panel,
+   * and the repaint thread draws each whole frame into the canvas's back buffer
+   * and shows it itself. There is no canvas without a screen.
+   * Only the event thread may call this.
+   * @param on 	whether frames are rendered actively
+   * @return whether active rendering is now on
+   */
+  public boolean setActiveRendering(boolean on) {
+    if (on == (canvas != null))
+      return on;
+    if (on) {
+      if (GraphicsEnvironment.isHeadless())
+        return false;
+      Canvas c = new Canvas() {
+        public void update(Graphics g) {
+          paint(g);
+        }
+
+        public void paint(Graphics g) {
+          if (animationThread == null)		// the repaint thread draws while it runs
+            renderActive();
+        }
+      };
+      c.setBackground(getBackground());
+      c.addMouseListener(mouseHandler);
+      c.addMouseMotionListener(mouseHandler);
+      setLayout(new BorderLayout());
+      add(c, BorderLayout.CENTER);
+      validate();
+      canvas = c;
+    } else {
+      Canvas c;
+      synchronized (frameLock) {		// wait for the frame being rendered
+        c = canvas;
+        canvas = null;
+      }
+      remove(c);
+      validate();
+      dirty.markAll();
+      repaint();
+    }
+    return on;
+  }
+
+  /** 
+   * Return whether frames are rendered actively
+   * @return true if and only if a canvas covers the panel
+   */
+  public boolean isActiveRendering() {
+    return canvas != null;
+  }
+
+  /** 
+   * Draw the whole of the newest snapshot into the back buffer of the canvas
+   * and show it, on the calling thread. The time taken to show it is recorded
+   * as the present time.
+   */
+  private void renderActive() {
+    synchronized (frameLock) {
+      Canvas c = canvas;
+      if (c == null || !c.isDisplayable() || c.getWidth() <= 0 || c.getHeight() <= 0)
+        return;
+      if (c.getBufferStrategy() == null)
+        c.createBufferStrategy(2);		// page flipping or volatile back buffers, whichever the screen has
+      BufferStrategy strategy = c.getBufferStrategy();
+      long start = System.nanoTime();
+      if (lastFrameStart != 0)
+        metrics.record(PerfMetrics.FRAME, start - lastFrameStart);
+      lastFrameStart = start;
+      paintFrame = snapshots.acquire();
+      paintAlpha = paintFrame.getAlpha(start);
+      metrics.setShapeCount(paintFrame.getShapes().size());
+      long present = 0;
+      do {
+        do {		// draw again if the buffer was lost while drawing
+          Graphics g = strategy.getDrawGraphics();
+          try {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, c.getWidth(), c.getHeight());
+            drawFrame(g);
+          } finally {
+            g.dispose();
+          }
+        } while (strategy.contentsRestored());
+        long shown = System.nanoTime();
+        strategy.show();
+        Toolkit.getDefaultToolkit().sync();
+        present += System.nanoTime() - shown;
+      } while (strategy.contentsLost());
+      metrics.record(PerfMetrics.PRESENT, present);
+      metrics.record(PerfMetrics.PAINT, System.nanoTime() - start);
     }
   }
 
@@ -250,48 +1113,60 @@ public class AnimationPanel extends JComponent implements Runnable {
    * @param newValue 	the speed of the animation in ms
    */
   public void adjustSpeed(int newValue) {
-    if (animationThread != null) {
-      stop();
-      delay = newValue;
-      start();
-    }
+    input(InputLog.SPEED, newValue);
+  }
+
+  /** 
+   * Set what the simulation does with steps missed when a step takes too long
+   * @param policy 	FrameScheduler.CATCH_UP or FrameScheduler.SKIP
+   */
+  public void setOverrunPolicy(int policy) {
+    engine.setOverrunPolicy(policy);
   }
 
   /**  
-   * When the "start" button is pressed, start the thread
+   * When the "start" button is pressed, start the simulation and the repaint thread
    */
   public void start() {
+    engine.setStepMillis(delay);
+    engine.start();
+    lastFrameStart = 0;
     animationThread = new Thread(this);
     animationThread.start();
   }
 
   /** 
-   * When the "stop" button is pressed, stop the thread
+   * When the "stop" button is pressed, stop the simulation and the repaint thread
    */
   public void stop() {
-    if (animationThread != null) {
+    Thread t = animationThread;
+    if (t != null) {
+      engine.stop();
       animationThread = null;
+      t.interrupt();		// the scheduler is shared by one repaint thread at a time
+      try {
+        t.join();
+      } catch(InterruptedException ie) {}
     }
   }
 
   /** 
-   * Run the animation
+   * Run the animation, repainting at the frame rate independent of the simulation
    */
   public void run() {
     Thread myThread = Thread.currentThread();
+    frames.reset();
     while(animationThread==myThread) {
-      repaint();
-      pause(delay);
+      if (canvas != null) {
+        renderActive();
+      } else if (!framePending) {		// drop frames while the event thread is behind
+        framePending = true;
+        SwingUtilities.invokeLater(frameTask);
+      }
+      try {
+        frames.awaitTick();
+      } catch(InterruptedException ie) {}
     }
   }
-
-  /** 
-   * Sleep for the specified amount of time
-   */
-  private void pause(int milliseconds) {
-    try {
-      Thread.sleep((long)milliseconds);
-    } catch(InterruptedException ie) {}
-  }
 }
 
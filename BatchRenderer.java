@@ -0,0 +1,322 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  BatchRenderer.java : Draws a ShapeStore by state instead of one shape at a
+ *  time. Shapes of the same type, fill and border colour are merged into one
+ *  path, which is filled and outlined with one colour change each, so Java2D
+ *  is not switching colour and primitive for every shape. Bow ties are only
+ *  sorted, not merged, as Java2D fills a path with different edge pixels than
+ *  fillPolygon, which they are drawn with.
+ *  Reordering is only safe between shapes which do not overlap, so in ordered
+ *  mode the shapes are cut into runs, in drawing order, in which no shape
+ *  overlaps another, and each run is batched on its own. In unordered mode the
+ *  whole frame is one run, and where shapes overlap any of them may be on top.
+ *  Groups of fewer than MIN_BATCH shapes are drawn shape by shape, as building
+ *  a path for them costs more than it saves; in a crowded panel most ordered
+ *  runs are only a few shapes long, so most groups are.
+ *  Batching is experimental: on the software pipeline nearly all of the time
+ *  goes in filling and outlining the shapes, which merging does not make any
+ *  cheaper, so it is no faster than drawing shape by shape and can be slower.
+ *  The saving in colour and primitive switches is for accelerated pipelines.
+ *  So it is left off the popup menu, and AnimationPanel.setBatcher turns it on.
+ *  ===============================================================================
+ */
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.util.*;
+
+public class BatchRenderer {
+  public static final int MIN_BATCH = 4;		// the fewest shapes of a group merged into one path
+  private static final int CELL = 16;			// the size of a cell of the overlap grid
+  private static final int HANDLE = 2;			// how far the handles stick out
+  private static final double KAPPA = 0.5522847498307933;	// the control point offset of a quarter ellipse
+  private boolean ordered = true;				// whether overlapping shapes keep their order
+  private int runs, batches;					// the counts from the last frame
+  private int[] rows = new int[0], xs = new int[0], ys = new int[0];	// the run and where each row is drawn
+  private long[] keys = new long[0];			// the group and row of each shape in the run, to be sorted
+  private int count;							// the number of shapes in the run
+  private int run = 0;							// the number of the run, marking the cells and slots it uses
+  private int[] cellRun = new int[0];			// the run which last covered each cell of the overlap grid
+  private int columns, gridRows;				// the size of the overlap grid
+  private int[] slotRun = new int[0], slotType, slotFill, slotBorder, slotGroup;	// the groups of the run, by hash
+  private int groups;							// the number of groups in the run
+  private Path2D.Float fills = new Path2D.Float(), borders = new Path2D.Float();	// a group's merged geometry
+  private Arc2D.Float arc = new Arc2D.Float(Arc2D.PIE);
+  private int[] cornerX = new int[6], cornerY = new int[6];	// a bow tie's corners
+  private Rectangle clipBounds = new Rectangle();	// the area being drawn, reused
+
+  /**
+   * Set whether shapes which overlap are drawn in their order
+   * @param on 	true to keep the order, false to batch the whole frame together
+   */
+  public void setOrdered(boolean on) {
+    ordered = on;
+  }
+
+  /**
+   * Return whether shapes which overlap are drawn in their order
+   * @return true if the order is kept
+   */
+  public boolean isOrdered() {
+    return ordered;
+  }
+
+  /**
+   * Return the number of runs of non-overlapping shapes in the last frame
+   * @return the run count
+   */
+  public int getRuns() {
+    return runs;
+  }
+
+  /**
+   * Return the number of batches, each one fill and one outline, in the last frame
+   * @return the batch count
+   */
+  public int getBatches() {
+    return batches;
+  }
+
+  /**
+   * Draw every shape of a store inside the clip part way between its previous and current position
+   * @param g 	the Graphics control
+   * @param store 	the shapes
+   * @param alpha 	the fraction of the step between the two positions, from 0 to 1
+   */
+  public void draw(Graphics g, ShapeStore store, double alpha) {
+    Graphics2D g2 = (Graphics2D) g;
+    ShapeStore.Painter painter = store.getPainter();
+    int n = store.size();
+    ensureCapacity(n, store.getMarginWidth(), store.getMarginHeight());
+    runs = 0;
+    batches = 0;
+    clipBounds.setBounds(Integer.MIN_VALUE / 2, Integer.MIN_VALUE / 2, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    Rectangle clip = g.getClipBounds(clipBounds);	// left as everything if there is no clip
+    begin();
+    for (int i = 0; i < n; i++) {
+      if (!store.intersects(i, clip))
+        continue;
+      MovingShape s = painter.load(i);
+      int x = s.getInterpolatedX(alpha), y = s.getInterpolatedY(alpha);
+      if (ordered && !cover(x - HANDLE, y - HANDLE, s.getWidth() + 2 * HANDLE + 1, s.getHeight() + 2 * HANDLE + 1)) {
+        flush(g2, store, painter);		// it overlaps a shape in the run, so must be drawn after them
+        begin();
+        cover(x - HANDLE, y - HANDLE, s.getWidth() + 2 * HANDLE + 1, s.getHeight() + 2 * HANDLE + 1);
+      }
+      rows[count] = i;
+      xs[count] = x;
+      ys[count] = y;
+      keys[count] = ((long) group(store.type[i], store.fill[i], store.border[i]) << 32) | count;
+      count++;
+    }
+    flush(g2, store, painter);
+  }
+
+  /**
+   * Start a new run
+   */
+  private void begin() {
+    count = 0;
+    groups = 0;
+    run++;
+    if (run == Integer.MAX_VALUE) {		// start the marks again before they wrap
+      run = 1;
+      Arrays.fill(cellRun, 0);
+      Arrays.fill(slotRun, 0);
+    }
+  }
+
+  /**
+   * Mark the cells of the overlap grid under a rectangle as covered by this run
+   * @return false if any of them already was
+   */
+  private boolean cover(int x, int y, int w, int h) {
+    int minCx = clamp(Math.floorDiv(x, CELL), columns), maxCx = clamp(Math.floorDiv(x + w - 1, CELL), columns);
+    int minCy = clamp(Math.floorDiv(y, CELL), gridRows), maxCy = clamp(Math.floorDiv(y + h - 1, CELL), gridRows);
+    boolean free = true;
+    for (int cy = minCy; cy <= maxCy; cy++)
+      for (int cx = minCx; cx <= maxCx; cx++) {
+        int c = cy * columns + cx;
+        if (cellRun[c] == run)
+          free = false;
+        cellRun[c] = run;
+      }
+    return free;
+  }
+
+  /**
+   * Return a cell column or row, shapes off the panel sharing the edge cells
+   */
+  private static int clamp(int c, int cells) {
+    return Math.max(0, Math.min(cells - 1, c));
+  }
+
+  /**
+   * Return the group of shapes with a type and colours in this run, adding it if it is new
+   */
+  private int group(int t, int f, int b) {
+    int mask = slotRun.length - 1;
+    int h = (t * 31 + f) * 31 + b;
+    for (int k = (h ^ (h >>> 16)) & mask; ; k = (k + 1) & mask) {
+      if (slotRun[k] != run) {
+        slotRun[k] = run;
+        slotType[k] = t;
+        slotFill[k] = f;
+        slotBorder[k] = b;
+        slotGroup[k] = groups;
+        return groups++;
+      }
+      if (slotType[k] == t && slotFill[k] == f && slotBorder[k] == b)
+        return slotGroup[k];
+    }
+  }
+
+  /**
+   * Draw the run a group at a time, then the handles of its selected shapes
+   */
+  private void flush(Graphics2D g, ShapeStore store, ShapeStore.Painter painter) {
+    if (count == 0)
+      return;
+    runs++;
+    Arrays.sort(keys, 0, count);
+    int k = 0;
+    while (k < count) {
+      int group = (int) (keys[k] >>> 32);
+      MovingShape first = painter.load(rows[(int) keys[k]]);
+      int t = first.getShapeType();
+      Color fill = first.getFillColor(), border = first.getBorderColor();
+      int end = k;
+      while (end < count && (int) (keys[end] >>> 32) == group)
+        end++;
+      if (end - k < MIN_BATCH) {
+        for (int j = k; j < end; j++) {
+          int m = (int) keys[j];
+          painter.load(rows[m]).drawShape(g, xs[m], ys[m]);
+        }
+      } else if (t == MovingShape.BOWTIE) {
+        g.setColor(fill);
+        for (int j = k; j < end; j++)
+          bowtie(g, (int) keys[j], store, false);
+        g.setColor(border);
+        for (int j = k; j < end; j++)
+          bowtie(g, (int) keys[j], store, true);
+      } else {
+        fills.reset();
+        borders.reset();
+        for (int j = k; j < end; j++) {
+          int m = (int) keys[j], i = rows[m];
+          append(t, xs[m], ys[m], store.width[i], store.height[i], store.mouth[i]);
+        }
+        g.setColor(fill);
+        g.fill(fills);
+        g.setColor(border);
+        g.draw(borders);
+      }
+      batches++;
+      k = end;
+    }
+    for (int m = 0; m < count; m++)
+      if (store.selected[rows[m]])
+        painter.load(rows[m]).drawHandles(g, xs[m], ys[m]);
+  }
+
+  /**
+   * Add a circle, rectangle or pacman's geometry to the group's fill and border paths
+   */
+  private void append(int t, int x, int y, int w, int h, int mouth) {
+    switch (t) {
+      case MovingShape.CIRCLE :
+        ellipse(fills, x, y, w, h);
+        ellipse(borders, x, y, w, h);
+        break;
+      case MovingShape.RECTANGLE :
+        rectangle(fills, x, y, w, h);
+        rectangle(borders, x, y, w, h);
+        break;
+      case MovingShape.PACMAN :
+        int start = mouth >> 1;
+        arc.setArc(x, y, w, h, start, 360 - 2 * start, Arc2D.PIE);
+        fills.append(arc, false);
+        borders.append(arc, false);
+        break;
+    }
+  }
+
+  /**
+   * Fill the outer bow tie or its centre diamond of a shape in the run, as MovingBowTie draws them
+   */
+  private void bowtie(Graphics2D g, int m, ShapeStore store, boolean centre) {
+    int x = xs[m], y = ys[m], w = store.width[rows[m]], h = store.height[rows[m]];
+    int offSet = h / 3, halfWidth = w / 2;
+    if (centre) {
+      int quarter = w / 4, halfHeight = h / 2;
+      cornerX[0] = x + quarter;              cornerY[0] = y + halfHeight;
+      cornerX[1] = x + halfWidth;            cornerY[1] = y + offSet;
+      cornerX[2] = x + halfWidth + quarter;  cornerY[2] = y + halfHeight;
+      cornerX[3] = x + halfWidth;            cornerY[3] = y + h - offSet;
+      g.fillPolygon(cornerX, cornerY, 4);
+    } else {
+      cornerX[0] = x;              cornerY[0] = y;
+      cornerX[1] = x + halfWidth;  cornerY[1] = y + offSet;
+      cornerX[2] = x + w;          cornerY[2] = y;
+      cornerX[3] = x + w;          cornerY[3] = y + h;
+      cornerX[4] = x + halfWidth;  cornerY[4] = y + h - offSet;
+      cornerX[5] = x;              cornerY[5] = y + h;
+      g.fillPolygon(cornerX, cornerY, 6);
+    }
+  }
+
+  /**
+   * Add a rectangle to a path
+   */
+  private static void rectangle(Path2D.Float p, float x, float y, float w, float h) {
+    p.moveTo(x, y);
+    p.lineTo(x + w, y);
+    p.lineTo(x + w, y + h);
+    p.lineTo(x, y + h);
+    p.closePath();
+  }
+
+  /**
+   * Add an ellipse to a path as four cubic curves, as Ellipse2D does
+   */
+  private static void ellipse(Path2D.Float p, float x, float y, float w, float h) {
+    float rx = w / 2, ry = h / 2, cx = x + rx, cy = y + ry;
+    float kx = (float) (rx * KAPPA), ky = (float) (ry * KAPPA);
+    p.moveTo(x + w, cy);
+    p.curveTo(x + w, cy + ky, cx + kx, y + h, cx, y + h);
+    p.curveTo(cx - kx, y + h, x, cy + ky, x, cy);
+    p.curveTo(x, cy - ky, cx - kx, y, cx, y);
+    p.curveTo(cx + kx, y, x + w, cy - ky, x + w, cy);
+    p.closePath();
+  }
+
+  /**
+   * Grow the working arrays for a frame of n shapes over a world of the given size
+   */
+  private void ensureCapacity(int n, int width, int height) {
+    if (rows.length < n) {
+      int capacity = Math.max(n, rows.length + (rows.length >> 1));
+      rows = new int[capacity];
+      xs = new int[capacity];
+      ys = new int[capacity];
+      keys = new long[capacity];
+    }
+    int slots = Integer.highestOneBit(Math.max(16, 2 * n - 1)) << 1;	// at most half full
+    if (slotRun.length < slots) {
+      slotRun = new int[slots];
+      slotType = new int[slots];
+      slotFill = new int[slots];
+      slotBorder = new int[slots];
+      slotGroup = new int[slots];
+    }
+    int c = Math.max(1, (width + CELL - 1) / CELL), r = Math.max(1, (height + CELL - 1) / CELL);
+    if (c != columns || r != gridRows) {
+      columns = c;
+      gridRows = r;
+      cellRun = new int[c * r];
+    }
+  }
+}
@@ -0,0 +1,479 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  Benchmarks.java : Micro benchmarks for moving, drawing and hit-testing shapes,
+ *  and for saving and loading scenes. Run with --add-modules jdk.incubator.vector
+ *  to also time the vector path kernel.
+ *  Every benchmark is run for each shape count: a few timed warmup iterations
+ *  let the JIT settle, then the measured iterations report the mean time per
+ *  shape and the bytes allocated per shape, read from the thread's allocation
+ *  counter in the same way as a GC profiler. With -check it fails if any
+ *  benchmark allocates more than its budget, as a regression test. Most are
+ *  meant to be allocation free; those which go through Java2D or build whole
+ *  scenes have a budget of bytes per shape and per call at today's numbers.
+ *
+ *  To run: java Benchmarks [-check] [counts, e.g. 100,10000] [name filter]
+ *  ===============================================================================
+ */
+
+import java.awt.*;
+import java.awt.geom.Arc2D;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.util.*;
+
+public class Benchmarks {
+  public static final int WARMUP_ITERATIONS = 5;		// the iterations thrown away
+  public static final int MEASURE_ITERATIONS = 5;		// the iterations reported
+  public static final long ITERATION_NANOS = 200000000L;	// the length of one iteration
+  private static final int MARGIN = 500;				// the size of the world
+  private static final String[] PATH_NAMES = { "Boundary", "Falling", "FloatingSideWays", "FloatingSideWaysOpp", "Flying", "FigureEight" };	// by path Id
+  private static final String[] SHAPE_NAMES = { "Circle", "Rectangle", "PacMan", "BowTie" };
+  private static final String EXPERIMENTAL = "experimental.";	// begins the names of the benchmarks only run when the filter names them
+
+  private static com.sun.management.ThreadMXBean threads =
+    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  private static volatile int sink;					// keeps results alive
+
+  /**
+   * Main method: run every benchmark whose name contains the filter.
+   * With -check, fail if any allocates more than its budget, measuring the
+   * Java2D calls a drawing benchmark makes on their own first, as their
+   * allocation depends on the JDK and is allowed on top.
+   */
+  public static void main(String[] args) {
+    boolean check = args.length > 0 && args[0].equals("-check");
+    if (check)
+      args = Arrays.copyOfRange(args, 1, args.length);
+    int[] counts = { 100, 10000 };
+    if (args.length > 0) {
+      String[] parts = args[0].split(",");
+      counts = new int[parts.length];
+      for (int i = 0; i < parts.length; i++)
+        counts[i] = Integer.parseInt(parts[i].trim());
+    }
+    String filter = args.length > 1 ? args[1] : "";
+    System.out.println(String.format("%-32s %8s %12s %12s %12s", "Benchmark", "shapes", "ns/shape", "B/shape", "alloc MB/s"));
+    int failures = 0;
+    for (Case c : cases())
+      if (c.name.contains(filter) && (!c.name.startsWith(EXPERIMENTAL) || filter.startsWith(EXPERIMENTAL)))
+        for (int n : counts) {
+          double[] r = measure(c, n);
+          print(c, n, r);
+          if (!check)
+            continue;
+          double budget = c.shapeBytes;
+          if (c.baseline != null) {		// what Java2D allocates for the same calls is allowed on top
+            double[] b = measure(c.baseline, n);
+            print(c.baseline, n, b);
+            budget += b[1];
+          }
+          if (r[1] * n >= budget * n + c.callBytes + 1) {	// at least a byte per call over
+            System.out.println("FAIL: " + c.name + " allocates " + String.format("%.2f", r[1]) + " bytes per shape, over its budget of "
+              + String.format("%.2f", budget) + " a shape and " + c.callBytes + " a call");
+            failures++;
+          }
+        }
+    if (failures > 0)
+      System.exit(1);
+  }
+
+  /**
+   * Return every benchmark: move for each path, draw, sprite and contains for each shape type,
+   * stores moved by each kernel, whole frames drawn directly, from sprites and tiled, and scenes saved and loaded,
+   * and the experimental frames drawn in batches, which only run when the filter begins with EXPERIMENTAL
+   * @return the benchmarks
+   */
+  public static java.util.List<Case> cases() {
+    java.util.List<Case> list = new ArrayList<Case>();
+    for (int p = 0; p < PATH_NAMES.length; p++) {
+      final int path = p;
+      list.add(new Case("move." + PATH_NAMES[p]) {
+        void run() {
+          for (int i = 0; i < shapes.length; i++)
+            shapes[i].move();
+        }
+        MovingShape make(Random r, int i) {
+          return newShape(i % 4, r, path);
+        }
+      });
+    }
+    for (int t = 0; t < SHAPE_NAMES.length; t++) {
+      final int type = t;
+      // Java2D's software loops allocate a span iterator to fill curves and polygons
+      list.add(new Case("draw." + SHAPE_NAMES[t], new Java2DCase(SHAPE_NAMES[t], t), 0) {
+        BufferedImage image = new BufferedImage(MARGIN, MARGIN, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        void run() {
+          for (int i = 0; i < shapes.length; i++)
+            shapes[i].draw(g);
+        }
+        MovingShape make(Random r, int i) {
+          return newShape(type, r, MovingShape.MovingPath.BOUNDARY);
+        }
+      });
+      list.add(new Case("sprite." + SHAPE_NAMES[t]) {
+        BufferedImage image = new BufferedImage(MARGIN, MARGIN, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        SpriteCache sprites = new SpriteCache();
+        void run() {
+          for (int i = 0; i < shapes.length; i++)
+            sprites.draw(shapes[i], g, shapes[i].getX(), shapes[i].getY());
+        }
+        MovingShape make(Random r, int i) {
+          return newShape(type, r, MovingShape.MovingPath.BOUNDARY);
+        }
+      });
+      list.add(new Case("contains." + SHAPE_NAMES[t]) {
+        Point[] points;
+        void setUp(int n) {
+          super.setUp(n);
+          Random r = new Random(2);
+          points = new Point[64];
+          for (int i = 0; i < points.length; i++)
+            points[i] = new Point(r.nextInt(MARGIN), r.nextInt(MARGIN));
+        }
+        void run() {
+          int found = 0;
+          for (int i = 0; i < shapes.length; i++)
+            if (shapes[i].contains(points[i & 63]))
+              found++;
+          sink += found;
+        }
+        MovingShape make(Random r, int i) {
+          return newShape(type, r, MovingShape.MovingPath.BOUNDARY);
+        }
+      });
+    }
+    // a mixed world moved row by row, and by the vector kernel if it is present
+    list.add(new FrameCase("store.scalar") {
+      void run() {
+        store.moveAll();
+      }
+    });
+    final PathKernel kernel = PathKernel.load();
+    if (kernel != PathKernel.SCALAR)
+      list.add(new FrameCase("store." + kernel.getName()) {
+        void setUp(int n) {
+          super.setUp(n);
+          store.setKernel(kernel);
+          // vectors are only kept in registers once the kernel is compiled, and allocate before then,
+          // which a short warmup of a large world may not reach
+          ShapeStore small = new ShapeStore(0, MARGIN, MARGIN);
+          small.copyFrom(Arrays.asList(shapes).subList(0, Math.min(n, 64)));
+          small.setKernel(kernel);
+          for (int i = 0; i < 100000; i++)
+            small.moveAll();
+        }
+        void run() {
+          store.moveAll();
+        }
+      });
+    // Java2D allocates inside fillOval, fill(Shape) and fillPolygon, as for draw.*
+    list.add(new FrameCase("frame.direct", new Java2DCase("mixed", -1), 0) {
+      void run() {
+        ShapeStore.Painter painter = store.getPainter();
+        for (int i = 0; i < store.size(); i++)
+          painter.drawInterpolated(g, i, 0.5);
+      }
+    });
+    list.add(new FrameCase("frame.sprites") {
+      void setUp(int n) {
+        super.setUp(n);
+        store.getPainter().setSprites(new SpriteCache());
+      }
+      void run() {
+        ShapeStore.Painter painter = store.getPainter();
+        for (int i = 0; i < store.size(); i++)
+          painter.drawInterpolated(g, i, 0.5);
+      }
+    });
+    // small groups are drawn shape by shape and allocate as for frame.direct, merged ones their path iterators
+    list.add(new FrameCase(EXPERIMENTAL + "frame.batched", new Java2DCase("mixed", -1), 0) {
+      BatchRenderer batcher = new BatchRenderer();
+      void run() {
+        batcher.draw(g, store, 0.5);
+      }
+    });
+    list.add(new FrameCase(EXPERIMENTAL + "frame.unordered", 76, 12288) {
+      BatchRenderer batcher = new BatchRenderer();
+      void run() {
+        batcher.setOrdered(false);
+        batcher.draw(g, store, 0.5);
+      }
+    });
+    // each tile is drawn with its own Graphics, and Java2D allocates as for frame.direct
+    list.add(new FrameCase("frame.tiled", 0, 512) {
+      TiledRenderer tiler = new TiledRenderer();
+      void run() {
+        tiler.draw(g, store, 0.5, MARGIN, MARGIN, Color.white);
+      }
+    });
+    // each scene holds SceneIO.RECORD_BYTES a shape; loading makes every shape anew
+    list.add(new SceneCase("scene.save", 0, 9216) {
+      void run() {
+        save();
+      }
+    });
+    list.add(new SceneCase("scene.load", 280, 16384) {
+      void run() {
+        load();
+      }
+    });
+    return list;
+  }
+
+  /**
+   * Make a shape of the given type at a random position
+   * @param type 	the shape type, MovingShape.CIRCLE to BOWTIE
+   * @param r 	the source of randomness, which also seeds the path
+   * @param path 	the path of the shape
+   * @return the new shape
+   */
+  static MovingShape newShape(int type, Random r, int path) {
+    int x = r.nextInt(MARGIN - 40), y = r.nextInt(MARGIN - 40);
+    int w = 10 + r.nextInt(30), h = 10 + r.nextInt(30);
+    return MovingShape.create(type, x, y, w, h, MARGIN, MARGIN, Color.blue, Color.black, path, new SplittableRandom(r.nextLong()));
+  }
+
+  /**
+   * Run a benchmark's warmup and measured iterations
+   * @param c 	the benchmark
+   * @param n 	the number of shapes
+   * @return the mean ns per shape and bytes allocated per shape
+   */
+  public static double[] measure(Case c, int n) {
+    c.setUp(n);
+    for (int i = 0; i < WARMUP_ITERATIONS; i++)
+      iteration(c);
+    long ops = 0, nanos = 0, bytes = 0;
+    for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+      long[] r = iteration(c);
+      ops += r[0];
+      nanos += r[1];
+      bytes += r[2];
+    }
+    double shapeOps = (double) ops * n;
+    return new double[] { nanos / shapeOps, bytes / shapeOps, bytes / (nanos / 1e9) / (1024 * 1024) };
+  }
+
+  /**
+   * Call the benchmark repeatedly for one iteration's worth of time
+   * @return the number of calls, the elapsed ns and the bytes allocated
+   */
+  private static long[] iteration(Case c) {
+    long id = Thread.currentThread().getId();
+    long bytes = threads.getThreadAllocatedBytes(id);
+    long start = System.nanoTime(), now = start, ops = 0;
+    do {
+      c.run();
+      ops++;
+      now = System.nanoTime();
+    } while (now - start < ITERATION_NANOS);
+    bytes = threads.getThreadAllocatedBytes(id) - bytes;	// before the result array is allocated
+    return new long[] { ops, now - start, bytes };
+  }
+
+  /**
+   * Print one result row
+   */
+  private static void print(Case c, int n, double[] r) {
+    System.out.println(String.format("%-32s %8d %12.1f %12.2f %12.1f", c.name, n, r[0], r[1], r[2]));
+  }
+
+  // Inner class ===================================================================== Inner class start
+
+  /*
+   *  ===============================================================================
+   *  Case : One benchmark, called over an array of shapes.
+   *  ===============================================================================
+   */
+  public static abstract class Case {
+    String name;				// the name printed in the results
+    int shapeBytes, callBytes;	// the bytes it may allocate for each shape and each call before -check fails it
+    Case baseline = null;		// the Java2D calls it makes, whose bytes a shape are added to its budget, if any
+    MovingShape[] shapes;		// the shapes the benchmark works on
+
+    Case(String n) {
+      this(n, 0, 0);
+    }
+
+    Case(String n, int perShape, int perCall) {
+      name = n;
+      shapeBytes = perShape;
+      callBytes = perCall;
+    }
+
+    Case(String n, Case base, int perCall) {
+      this(n, 0, perCall);
+      baseline = base;
+    }
+
+    /**
+     * Make the shapes for a run, the same ones every time
+     * @param n 	the number of shapes
+     */
+    void setUp(int n) {
+      Random r = new Random(1);
+      shapes = new MovingShape[n];
+      for (int i = 0; i < n; i++)
+        shapes[i] = make(r, i);
+    }
+
+    /**
+     * Abstract make method
+     * make the i-th shape of a run
+     */
+    abstract MovingShape make(Random r, int i);
+
+    /**
+     * Abstract run method
+     * the work being measured, once over every shape
+     */
+    abstract void run();
+  }
+
+  /*
+   *  ===============================================================================
+   *  FrameCase : A benchmark drawing a whole frame of mixed shapes, in a few
+   *  colours, from a ShapeStore as the panel does.
+   *  ===============================================================================
+   */
+  static abstract class FrameCase extends Case {
+    BufferedImage image = new BufferedImage(MARGIN, MARGIN, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    ShapeStore store;
+
+    FrameCase(String n) {
+      super(n);
+    }
+
+    FrameCase(String n, int perShape, int perCall) {
+      super(n, perShape, perCall);
+    }
+
+    FrameCase(String n, Case base, int perCall) {
+      super(n, base, perCall);
+    }
+
+    void setUp(int n) {
+      super.setUp(n);
+      store = new ShapeStore(n, MARGIN, MARGIN);
+      store.copyFrom(Arrays.asList(shapes));
+    }
+
+    MovingShape make(Random r, int i) {
+      MovingShape s = newShape(i % 4, r, i % PATH_NAMES.length);
+      s.setFillColor(new Color(r.nextInt(8) * 0x202020));
+      s.move();
+      return s;
+    }
+  }
+
+  /*
+   *  ===============================================================================
+   *  Java2DCase : The Java2D calls the shapes make to draw themselves, made
+   *  straight onto an image over shapes of the same types and bounds, as the
+   *  baseline of a drawing benchmark's allocation.
+   *  ===============================================================================
+   */
+  static class Java2DCase extends FrameCase {
+    int type;					// the type of every shape, or -1 for the mixed frame
+    Arc2D.Float arc = new Arc2D.Float(Arc2D.PIE);
+    int[] xs = new int[6], ys = new int[6];
+
+    Java2DCase(String n, int t) {
+      super("java2d." + n);
+      type = t;
+    }
+
+    MovingShape make(Random r, int i) {
+      return type < 0 ? super.make(r, i) : newShape(type, r, MovingShape.MovingPath.BOUNDARY);
+    }
+
+    void run() {
+      for (int i = 0; i < shapes.length; i++) {
+        MovingShape s = shapes[i];
+        int x = s.getX(), y = s.getY(), w = s.getWidth(), h = s.getHeight();
+        switch (s.getShapeType()) {
+          case MovingShape.CIRCLE :
+            g.fillOval(x, y, w, h);
+            g.drawOval(x, y, w, h);
+            break;
+          case MovingShape.RECTANGLE :
+            g.fillRect(x, y, w, h);
+            g.drawRect(x, y, w, h);
+            break;
+          case MovingShape.PACMAN :
+            arc.setArc(x, y, w, h, 45, 270, Arc2D.PIE);
+            g.fill(arc);
+            g.draw(arc);
+            break;
+          default :
+            xs[0] = x; xs[1] = x + w / 2; xs[2] = x + w; xs[3] = x + w; xs[4] = x + w / 2; xs[5] = x;
+            ys[0] = y; ys[1] = y + h / 3; ys[2] = y; ys[3] = y + h; ys[4] = y + h - h / 3; ys[5] = y + h;
+            g.fillPolygon(xs, ys, 6);
+            g.fillPolygon(xs, ys, 4);
+            break;
+        }
+      }
+    }
+  }
+
+  /*
+   *  ===============================================================================
+   *  SceneCase : A benchmark saving or loading a scene of mixed shapes to and
+   *  from memory, so only the encoding is timed and not the disk.
+   *  ===============================================================================
+   */
+  static abstract class SceneCase extends FrameCase {
+    ByteArrayOutputStream file = new ByteArrayOutputStream();
+    byte[] saved;
+    SceneIO.ChunkListener listener = new SceneIO.ChunkListener() {
+      public void loaded(java.util.List<MovingShape> chunk) {
+        sink += chunk.size();
+      }
+    };
+
+    SceneCase(String n, int perShape, int perCall) {
+      super(n, perShape, perCall);
+    }
+
+    void setUp(int n) {
+      super.setUp(n);
+      store.clear();
+      for (int i = 0; i < n; i++)
+        store.add(shapes[i]);	// with the state of its path
+      save();
+      saved = file.toByteArray();
+    }
+
+    /**
+     * Write the store to the in-memory file
+     */
+    void save() {
+      file.reset();
+      try {
+        SceneIO.save(store, Channels.newChannel(file));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * Read the shapes back from the saved file
+     */
+    void load() {
+      try {
+        SceneIO.load(Channels.newChannel(new ByteArrayInputStream(saved)), MARGIN, MARGIN, listener);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+ // ======================================================================================== Inner class End
+}
@@ -0,0 +1,228 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  CollisionSystem.java : Makes overlapping shapes bounce off each other.
+ *  The broad phase sorts the shapes by their left edge and sweeps along x, so
+ *  only shapes whose x ranges overlap are compared (sweep and prune). Pairs whose
+ *  bounds also overlap on y go to the narrow phase, which intersects the real
+ *  outlines of the two shapes. Shapes that touch and are moving towards each
+ *  other have their paths turned round along the axis they overlap least on.
+ *  ===============================================================================
+ */
+
+import java.awt.*;
+import java.awt.geom.PathIterator;
+import java.util.*;
+
+public class CollisionSystem {
+  private long[] order = new long[0];				// left edge and index of each shape, sorted
+  private MovingShape[] shapes = new MovingShape[0];	// the shapes being tested
+  private int[] minX = new int[0], minY = new int[0],	// the bounds of each shape
+    maxX = new int[0], maxY = new int[0];
+  private int candidates, collisions;				// the counts from the last pass
+  private Outline polygonA = new Outline(), polygonB = new Outline();	// the flattened outlines in the narrow phase
+
+  /**
+   * Bounce every pair of overlapping shapes which are moving towards each other.
+   * The caller must stop other threads changing the list while it runs.
+   * @param list 	the shapes to test
+   * @return the number of colliding pairs found
+   */
+  public int resolve(java.util.List<MovingShape> list) {
+    int n = list.size();
+    ensureCapacity(n);
+    for (int i = 0; i < n; i++) {
+      MovingShape s = list.get(i);
+      shapes[i] = s;
+      minX[i] = s.getX();
+      minY[i] = s.getY();
+      maxX[i] = s.getX() + s.getWidth();
+      maxY[i] = s.getY() + s.getHeight();
+      order[i] = ((long) minX[i] << 32) | i;	// sort by the left edge, the index rides in the low bits
+    }
+    Arrays.sort(order, 0, n);
+    candidates = 0;
+    collisions = 0;
+    for (int a = 0; a < n; a++) {
+      int i = (int) order[a];
+      for (int b = a + 1; b < n; b++) {
+        int j = (int) order[b];
+        if (minX[j] > maxX[i])		// every later shape starts further right too
+          break;
+        if (minY[j] > maxY[i] || minY[i] > maxY[j])
+          continue;
+        candidates++;
+        if (overlaps(shapes[i], shapes[j])) {
+          collisions++;
+          respond(i, j);
+        }
+      }
+    }
+    Arrays.fill(shapes, 0, n, null);
+    return collisions;
+  }
+
+  /**
+   * Return the number of pairs the last pass passed to the narrow phase
+   * @return the candidate pair count
+   */
+  public int getCandidates() {
+    return candidates;
+  }
+
+  /**
+   * Return the number of colliding pairs the last pass found
+   * @return the collision count
+   */
+  public int getCollisions() {
+    return collisions;
+  }
+
+  /**
+   * Narrow phase: return whether the outlines of two shapes with overlapping bounds intersect.
+   * Round circles are compared exactly, other curves are flattened to polygons.
+   * @param a 	the first shape
+   * @param b 	the second shape
+   * @return true if and only if the shapes overlap
+   */
+  public boolean overlaps(MovingShape a, MovingShape b) {
+    int ta = a.getShapeType(), tb = b.getShapeType();
+    if (ta == MovingShape.RECTANGLE && tb == MovingShape.RECTANGLE)
+      return true;	// the bounds are the outlines
+    if (ta == MovingShape.CIRCLE && tb == MovingShape.CIRCLE && a.getWidth() == a.getHeight() && b.getWidth() == b.getHeight()) {
+      long dx = 2L * (a.getX() - b.getX()) + a.getWidth() - b.getWidth();	// twice the distance between the centres
+      long dy = 2L * (a.getY() - b.getY()) + a.getHeight() - b.getHeight();
+      long r = a.getWidth() + b.getWidth();
+      return dx * dx + dy * dy < r * r;
+    }
+    polygonA.load(a.getOutline());
+    polygonB.load(b.getOutline());
+    return polygonA.intersects(polygonB);
+  }
+
+  /**
+   * Turn round two colliding shapes if they are moving towards each other
+   */
+  private void respond(int i, int j) {
+    MovingShape a = shapes[i], b = shapes[j];
+    if (a.getPath() == null || b.getPath() == null)
+      return;
+    int overlapX = Math.min(maxX[i], maxX[j]) - Math.max(minX[i], minX[j]);
+    int overlapY = Math.min(maxY[i], maxY[j]) - Math.max(minY[i], minY[j]);
+    boolean horizontal = overlapX < overlapY;
+    int closing, apart;
+    if (horizontal) {
+      closing = (a.getX() - a.prevX) - (b.getX() - b.prevX);
+      apart = (minX[i] + maxX[i]) - (minX[j] + maxX[j]);
+    } else {
+      closing = (a.getY() - a.prevY) - (b.getY() - b.prevY);
+      apart = (minY[i] + maxY[i]) - (minY[j] + maxY[j]);
+    }
+    if ((long) closing * apart < 0) {	// moving towards each other
+      a.getPath().bounce(horizontal);
+      b.getPath().bounce(horizontal);
+    }
+  }
+
+  /**
+   * Grow the working arrays to hold n shapes
+   */
+  private void ensureCapacity(int n) {
+    if (order.length >= n)
+      return;
+    int capacity = Math.max(n, order.length + (order.length >> 1));
+    order = new long[capacity];
+    shapes = new MovingShape[capacity];
+    minX = new int[capacity];
+    minY = new int[capacity];
+    maxX = new int[capacity];
+    maxY = new int[capacity];
+  }
+
+  // Inner class ===================================================================== Inner class start
+
+  /*
+   *  ===============================================================================
+   *  Outline : A shape's outline flattened into a closed polygon, reused between tests.
+   *  ===============================================================================
+   */
+  private static class Outline {
+    private static final double FLATNESS = 0.5;	// how far a flattened curve may stray
+    private double[] xs = new double[32], ys = new double[32];
+    private double[] coords = new double[6];
+    private int n;
+
+    /**
+     * Flatten a shape into this polygon
+     * @param s 	the shape, made of one closed sub path
+     */
+    void load(Shape s) {
+      n = 0;
+      for (PathIterator it = s.getPathIterator(null, FLATNESS); !it.isDone(); it.next()) {
+        int seg = it.currentSegment(coords);
+        if (seg == PathIterator.SEG_MOVETO || seg == PathIterator.SEG_LINETO) {
+          if (n == xs.length) {
+            xs = Arrays.copyOf(xs, n * 2);
+            ys = Arrays.copyOf(ys, n * 2);
+          }
+          xs[n] = coords[0];
+          ys[n] = coords[1];
+          n++;
+        }
+      }
+    }
+
+    /**
+     * Return whether this polygon and another overlap: either an edge of one
+     * crosses an edge of the other, or one lies inside the other
+     * @param o 	the other polygon
+     * @return true if and only if the polygons overlap
+     */
+    boolean intersects(Outline o) {
+      for (int i = 0, pi = n - 1; i < n; pi = i++)
+        for (int j = 0, pj = o.n - 1; j < o.n; pj = j++)
+          if (crosses(xs[pi], ys[pi], xs[i], ys[i], o.xs[pj], o.ys[pj], o.xs[j], o.ys[j]))
+            return true;
+      return (n > 0 && o.contains(xs[0], ys[0])) || (o.n > 0 && contains(o.xs[0], o.ys[0]));
+    }
+
+    /**
+     * Return whether a point is inside this polygon, by the even-odd rule
+     */
+    boolean contains(double px, double py) {
+      boolean inside = false;
+      for (int i = 0, j = n - 1; i < n; j = i++)
+        if ((ys[i] > py) != (ys[j] > py) && px < (xs[j] - xs[i]) * (py - ys[i]) / (ys[j] - ys[i]) + xs[i])
+          inside = !inside;
+      return inside;
+    }
+
+    /**
+     * Return whether segment (x1,y1)-(x2,y2) crosses segment (x3,y3)-(x4,y4)
+     */
+    private static boolean crosses(double x1, double y1, double x2, double y2, double x3, double y3, double x4, double y4) {
+      double d1 = side(x3, y3, x4, y4, x1, y1), d2 = side(x3, y3, x4, y4, x2, y2);
+      double d3 = side(x1, y1, x2, y2, x3, y3), d4 = side(x1, y1, x2, y2, x4, y4);
+      return ((d1 > 0) != (d2 > 0)) && ((d3 > 0) != (d4 > 0)) && d1 != 0 && d2 != 0 && d3 != 0 && d4 != 0
+        || (d1 == 0 && between(x3, y3, x4, y4, x1, y1)) || (d2 == 0 && between(x3, y3, x4, y4, x2, y2))
+        || (d3 == 0 && between(x1, y1, x2, y2, x3, y3)) || (d4 == 0 && between(x1, y1, x2, y2, x4, y4));
+    }
+
+    /**
+     * Return the cross product telling which side of a line a point is on
+     */
+    private static double side(double ax, double ay, double bx, double by, double px, double py) {
+      return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+
+    /**
+     * Return whether a point on a line lies within the segment's box
+     */
+    private static boolean between(double ax, double ay, double bx, double by, double px, double py) {
+      return Math.min(ax, bx) <= px && px <= Math.max(ax, bx) && Math.min(ay, by) <= py && py <= Math.max(ay, by);
+    }
+  }
+
+ // ======================================================================================== Inner class End
+}
@@ -0,0 +1,219 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  DirtyRegion.java : The parts of the panel which changed since the last frame.
+ *  It remembers where each shape was last painted, so marking a shape's new
+ *  bounds dirties both where it was and where it is now. Rectangles are merged
+ *  whenever their union costs no more area than the two apart, and the set is
+ *  kept to a few rectangles. A frame is painted once under their bounds, clipped
+ *  to the rectangles themselves, and only the shapes touching one are drawn.
+ *  ===============================================================================
+ */
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.util.*;
+
+public class DirtyRegion {
+  public static final int MAX_RECTANGLES = 32;	// the most rectangles kept before they are merged anyway
+  private Rectangle[] rects = new Rectangle[MAX_RECTANGLES];	// the dirty rectangles, reused between frames
+  private int count = 0;							// the number of dirty rectangles
+  private boolean all = true;						// whether everything must be repainted
+  private int[] shownX = new int[0], shownY = new int[0],	// where each shape was last painted
+    shownW = new int[0], shownH = new int[0];
+  private int shown = 0;							// the number of shapes last painted
+  private Rectangle scratch = new Rectangle();
+
+  /**
+   * Constructor
+   */
+  public DirtyRegion() {
+    for (int k = 0; k < rects.length; k++)
+      rects[k] = new Rectangle();
+  }
+
+  /**
+   * Start a new frame of the given number of shapes. If shapes have been
+   * removed since the last frame everything is dirty, as their rows have moved.
+   * @param shapes 	the number of shapes in the new frame
+   */
+  public void begin(int shapes) {
+    count = 0;
+    if (shapes < shown)
+      all = true;
+    if (shownX.length < shapes) {
+      int capacity = Math.max(shapes, shownX.length + (shownX.length >> 1));
+      shownX = Arrays.copyOf(shownX, capacity);
+      shownY = Arrays.copyOf(shownY, capacity);
+      shownW = Arrays.copyOf(shownW, capacity);
+      shownH = Arrays.copyOf(shownH, capacity);
+    }
+  }
+
+  /**
+   * Mark where a shape will be painted, dirtying where it was painted before too
+   * @param i 	the shape's row in the frame
+   * @param x 	the left of its new bounds
+   * @param y 	the top of its new bounds
+   * @param w 	the width of its new bounds
+   * @param h 	the height of its new bounds
+   */
+  public void mark(int i, int x, int y, int w, int h) {
+    if (!all) {
+      if (i < shown)
+        add(shownX[i], shownY[i], shownW[i], shownH[i]);
+      add(x, y, w, h);
+    }
+    shownX[i] = x;
+    shownY[i] = y;
+    shownW[i] = w;
+    shownH[i] = h;
+  }
+
+  /**
+   * Finish the frame, which is now what is on the screen
+   * @param shapes 	the number of shapes in the frame
+   */
+  public void end(int shapes) {
+    shown = shapes;
+  }
+
+  /**
+   * Make the next frame repaint everything
+   */
+  public void markAll() {
+    all = true;
+  }
+
+  /**
+   * Return whether everything must be repainted, and clear the flag
+   * @return true if and only if the last frame's rectangles are not enough
+   */
+  public boolean takeAll() {
+    boolean a = all;
+    all = false;
+    return a;
+  }
+
+  /**
+   * Return the number of dirty rectangles
+   * @return the rectangle count
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Return a dirty rectangle, which is reused by the next frame
+   * @param k 	the index of the rectangle
+   * @return the rectangle
+   */
+  public Rectangle get(int k) {
+    return rects[k];
+  }
+
+  /**
+   * Return the smallest rectangle holding every dirty rectangle
+   * @param into 	the rectangle to set and return
+   * @return into, empty if nothing is dirty
+   */
+  public Rectangle getBounds(Rectangle into) {
+    into.setBounds(0, 0, 0, 0);
+    for (int k = 0; k < count; k++)
+      if (k == 0)
+        into.setBounds(rects[k]);
+      else
+        into.add(rects[k]);
+    return into;
+  }
+
+  /**
+   * Return the dirty rectangles as one outline, to clip a paint to
+   * @param into 	the path to reset, fill and return
+   * @return into, whose non-zero winding covers every dirty rectangle
+   */
+  public Path2D getOutline(Path2D into) {
+    into.reset();
+    into.setWindingRule(Path2D.WIND_NON_ZERO);	// so overlapping rectangles do not cancel out
+    for (int k = 0; k < count; k++)
+      into.append(rects[k], false);
+    return into;
+  }
+
+  /**
+   * Return whether a shape's last two positions touch any dirty rectangle
+   * @param shapes 	the shapes
+   * @param i 	the shape's row
+   * @return true if and only if the shape must be drawn
+   */
+  public boolean intersects(ShapeStore shapes, int i) {
+    for (int k = 0; k < count; k++)
+      if (shapes.intersects(i, rects[k]))
+        return true;
+    return false;
+  }
+
+  /**
+   * Return the total area of the dirty rectangles
+   * @return the area in pixels
+   */
+  public long getArea() {
+    long area = 0;
+    for (int k = 0; k < count; k++)
+      area += area(rects[k]);
+    return area;
+  }
+
+  /**
+   * Add a rectangle, merging it with any it is cheaper to paint together with
+   * @param x 	the left of the rectangle
+   * @param y 	the top of the rectangle
+   * @param w 	the width of the rectangle
+   * @param h 	the height of the rectangle
+   */
+  public void add(int x, int y, int w, int h) {
+    if (w <= 0 || h <= 0)
+      return;
+    Rectangle r = scratch;
+    r.setBounds(x, y, w, h);
+    for (int k = 0; k < count; k++) {
+      Rectangle o = rects[k];
+      if (unionArea(o, r) <= area(o) + area(r)) {
+        r.add(o);			// take it out and try again with the union
+        o.setBounds(rects[--count]);
+        k = -1;
+      }
+    }
+    if (count == rects.length) {		// too many: grow the one the rectangle enlarges least
+      int best = 0;
+      long bestGrowth = Long.MAX_VALUE;
+      for (int k = 0; k < count; k++) {
+        long growth = unionArea(rects[k], r) - area(rects[k]);
+        if (growth < bestGrowth) {
+          bestGrowth = growth;
+          best = k;
+        }
+      }
+      rects[best].add(r);
+      return;
+    }
+    rects[count++].setBounds(r);
+  }
+
+  /**
+   * Return the area of a rectangle
+   */
+  private static long area(Rectangle r) {
+    return (long) r.width * r.height;
+  }
+
+  /**
+   * Return the area of the smallest rectangle holding two rectangles
+   */
+  private static long unionArea(Rectangle a, Rectangle b) {
+    long w = Math.max(a.x + a.width, b.x + b.width) - Math.min(a.x, b.x);
+    long h = Math.max(a.y + a.height, b.y + b.height) - Math.min(a.y, b.y);
+    return w * h;
+  }
+}
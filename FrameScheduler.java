@@ -0,0 +1,150 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  FrameScheduler.java : Wakes a loop at a fixed rate without drifting.
+ *  Every tick has a deadline a whole number of periods after the first, taken
+ *  from System.nanoTime(), so the time spent working between ticks does not
+ *  push the later ticks back. The period may be changed while a thread is
+ *  waiting. When a tick overruns, the loop either catches up by running the
+ *  missed ticks, up to a limit, or skips them and keeps to the original phase.
+ *  ===============================================================================
+ */
+
+import java.util.concurrent.locks.LockSupport;
+
+public class FrameScheduler {
+  public static final int CATCH_UP = 0;		// run the missed ticks
+  public static final int SKIP = 1;			// drop the missed ticks
+  public static final int DEFAULT_MAX_CATCH_UP = 5;	// the default most ticks run at once
+  private volatile long periodNanos;		// the time between ticks
+  private volatile int policy;				// what to do with missed ticks
+  private int maxCatchUp = DEFAULT_MAX_CATCH_UP;	// the most ticks run at once when catching up
+  private long last;						// the deadline of the last tick
+  private volatile Thread waiter = null;	// the thread waiting for the next tick, if any
+  private volatile long overruns = 0;		// the ticks which came late
+  private volatile long dropped = 0;		// the ticks skipped or given up on
+
+  /**
+   * Constructor of the FrameScheduler
+   * @param period 	the time between ticks in ns
+   * @param p 	CATCH_UP or SKIP
+   */
+  public FrameScheduler(long period, int p) {
+    periodNanos = Math.max(1, period);
+    policy = p;
+    reset();
+  }
+
+  /**
+   * Set the time between ticks, taking effect from the last tick
+   * @param period 	the period in ns, at least 1
+   */
+  public void setPeriodNanos(long period) {
+    periodNanos = Math.max(1, period);
+    Thread t = waiter;
+    if (t != null)
+      LockSupport.unpark(t);	// wait for the new deadline instead
+  }
+
+  /**
+   * Set the time between ticks
+   * @param millis 	the period in ms, at least 1
+   */
+  public void setPeriodMillis(int millis) {
+    setPeriodNanos(Math.max(1, millis) * 1000000L);
+  }
+
+  /**
+   * Return the time between ticks
+   * @return the period in ns
+   */
+  public long getPeriodNanos() {
+    return periodNanos;
+  }
+
+  /**
+   * Set what happens to ticks missed because the loop overran
+   * @param p 	CATCH_UP or SKIP
+   */
+  public void setPolicy(int p) {
+    policy = p;
+  }
+
+  /**
+   * Return what happens to missed ticks
+   * @return CATCH_UP or SKIP
+   */
+  public int getPolicy() {
+    return policy;
+  }
+
+  /**
+   * Set the most ticks run at once when catching up; the time of any more is dropped
+   * @param max 	the tick limit, at least 1
+   */
+  public void setMaxCatchUp(int max) {
+    maxCatchUp = Math.max(1, max);
+  }
+
+  /**
+   * Start counting periods from now
+   */
+  public void reset() {
+    last = System.nanoTime();
+  }
+
+  /**
+   * Return the deadline of the last tick, which is the time the loop's state is for
+   * @return the deadline in System.nanoTime() units
+   */
+  public long getLastTick() {
+    return last;
+  }
+
+  /**
+   * Return the number of ticks which came later than a whole period
+   * @return the overrun count
+   */
+  public long getOverruns() {
+    return overruns;
+  }
+
+  /**
+   * Return the number of ticks skipped, or dropped past the catch-up limit
+   * @return the dropped tick count
+   */
+  public long getDropped() {
+    return dropped;
+  }
+
+  /**
+   * Wait for the next deadline. Only one thread may wait at a time.
+   * @return the number of ticks to run: 1, or more if catching up
+   * @throws InterruptedException 	if the waiting thread is interrupted
+   */
+  public int awaitTick() throws InterruptedException {
+    waiter = Thread.currentThread();
+    try {
+      long wait;
+      while ((wait = last + periodNanos - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(this, wait);
+        if (Thread.interrupted())
+          throw new InterruptedException();
+      }
+    } finally {
+      waiter = null;
+    }
+    long period = periodNanos;
+    long due = (System.nanoTime() - last) / period;	// at least 1
+    int ticks = 1;
+    if (due > 1) {
+      overruns++;
+      if (policy == CATCH_UP)
+        ticks = (int) Math.min(due, maxCatchUp);
+      dropped += due - ticks;
+    }
+    last += due * period;	// keep to the original phase whatever is run
+    return ticks;
+  }
+}
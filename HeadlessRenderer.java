@@ -0,0 +1,146 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  HeadlessRenderer.java : Renders the animation without a display and writes
+ *  each frame to disk as a numbered PNG. The shapes are stepped and drawn into
+ *  one of a small pool of offscreen images on the calling thread, while a pool
+ *  of workers encodes and writes the finished images, so drawing only waits when
+ *  every image in the pool is still being written.
+ *
+ *  To run: java HeadlessRenderer [frames] [width] [height] [shapes] [directory] [workers] [seed]
+ *  ===============================================================================
+ */
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.imageio.ImageIO;
+
+public class HeadlessRenderer {
+  private Vector<MovingShape> shapes;		// the shapes to render
+  private SimulationEngine engine;			// steps the shapes
+  private int width, height;				// the size of a frame
+  private Color background = Color.white;	// the colour behind the shapes
+
+  /**
+   * Main method: render a PNG sequence of randomly placed shapes
+   */
+  public static void main(String[] args) throws Exception {
+    System.setProperty("java.awt.headless", "true");
+    int frames = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+    int w = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+    int h = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+    int count = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+    File dir = new File(args.length > 4 ? args[4] : "frames");
+    int workers = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+    Random random = args.length > 6 ? new Random(Long.parseLong(args[6])) : new Random();	// a seed renders the same frames every time
+
+    HeadlessRenderer renderer = new HeadlessRenderer(w, h);
+    renderer.addRandomShapes(count, random);
+    long start = System.nanoTime();
+    renderer.render(frames, dir, workers);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(frames + " frames of " + count + " shapes written to " + dir + " in "
+      + String.format("%.2f", seconds) + " s (" + String.format("%.1f", frames / seconds) + " fps)");
+  }
+
+  /**
+   * Constructor to create an empty world
+   * @param w 	the width of a frame
+   * @param h 	the height of a frame
+   */
+  public HeadlessRenderer(int w, int h) {
+    width = w;
+    height = h;
+    shapes = new Vector<MovingShape>();
+    engine = new SimulationEngine(shapes, 30);
+  }
+
+  /**
+   * Return the shapes to render, which may be added to before rendering
+   * @return the shapes
+   */
+  public Vector<MovingShape> getShapes() {
+    return shapes;
+  }
+
+  /**
+   * Return the engine which steps the shapes
+   * @return the engine, which is never started
+   */
+  public SimulationEngine getEngine() {
+    return engine;
+  }
+
+  /**
+   * Add shapes of random type, path, size and colour at random positions
+   * @param count 	the number of shapes to add
+   * @param random 	the source of randomness, which also seeds the shapes' paths
+   */
+  public void addRandomShapes(int count, Random random) {
+    shapes.ensureCapacity(shapes.size() + count);
+    new ShapeSpawner().spawn(count, width, height, new SplittableRandom(random.nextLong()), shapes);
+  }
+
+  /**
+   * Step and draw the given number of frames, writing frame-00000.png onwards
+   * @param frames 	the number of frames
+   * @param dir 	the directory to write to, created if needed
+   * @param workers 	the number of threads encoding and writing
+   */
+  public void render(int frames, File dir, int workers) throws IOException, InterruptedException {
+    if (!dir.isDirectory() && !dir.mkdirs())
+      throw new IOException("Cannot create " + dir);
+    workers = Math.max(1, workers);
+    // enough images that the workers are always busy while the next frame is drawn
+    final BlockingQueue<BufferedImage> free = new ArrayBlockingQueue<BufferedImage>(workers + 2);
+    for (int i = 0; i < workers + 2; i++)
+      free.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+    ExecutorService encoders = Executors.newFixedThreadPool(workers);
+    final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+    try {
+      for (int frame = 0; frame < frames && failure.get() == null; frame++) {
+        engine.step();
+        final BufferedImage image = free.take();
+        drawFrame(image);
+        final File file = new File(dir, String.format("frame-%05d.png", frame));
+        encoders.execute(new Runnable() {
+          public void run() {
+            try {
+              ImageIO.write(image, "png", file);
+            } catch (IOException e) {
+              failure.compareAndSet(null, e);
+            } finally {
+              free.add(image);
+            }
+          }
+        });
+      }
+    } finally {
+      encoders.shutdown();
+      encoders.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+    if (failure.get() != null)
+      throw failure.get();
+  }
+
+  /**
+   * Draw the shapes as they are now into an image
+   * @param image 	the image to draw into
+   */
+  public void drawFrame(BufferedImage image) {
+    Graphics2D g = image.createGraphics();
+    try {
+      g.setColor(background);
+      g.fillRect(0, 0, width, height);
+      for (int i = 0; i < shapes.size(); i++)
+        shapes.elementAt(i).draw(g);
+    } finally {
+      g.dispose();
+    }
+  }
+}
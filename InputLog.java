@@ -0,0 +1,212 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  InputLog.java : A recording of the inputs which change the world, each
+ *  stamped with the simulation tick it took effect on, and the seed the
+ *  world's random values came from. Replaying a log into an empty world makes
+ *  the same inputs happen on the same ticks, so the run is reproduced step for
+ *  step whatever the speed or frame rate, and two builds can be timed on
+ *  exactly the same workload.
+ *  A log file is small:
+ *
+ *    header  int magic 'JINP', short version, long seed, int event count
+ *    event   varint ticks since the event before, byte kind, its arguments as zigzag varints
+ *
+ *  so a click takes about seven bytes. Loading a scene is not an input, so a
+ *  recording only reproduces the shapes made while it was on.
+ *  ===============================================================================
+ */
+
+import java.io.*;
+import java.util.Arrays;
+
+public class InputLog {
+  public static final int CLICK = 0;		// x, y, margin width, margin height: select the shapes there or add one
+  public static final int ADD = 1;			// x, y, margin width, margin height: add a shape
+  public static final int SELECT = 2;		// x, y, width, height: select the shapes in a rubber band
+  public static final int SHAPE_TYPE = 3;	// the default shape type
+  public static final int PATH_TYPE = 4;	// the default path, also given to the selected shapes
+  public static final int WIDTH = 5;		// the default width, also given to the selected shapes
+  public static final int HEIGHT = 6;		// the default height, also given to the selected shapes
+  public static final int FILL = 7;			// the default fill ARGB, also given to the selected shapes
+  public static final int BORDER = 8;		// the default border ARGB, also given to the selected shapes
+  public static final int SPEED = 9;		// the step length in ms
+  public static final int CLEAR = 10;		// no arguments: remove every shape
+  public static final int MARGIN = 11;		// width, height of the panel
+  public static final int COLLISIONS = 12;	// 1 to turn collisions on, 0 to turn them off
+  public static final int SPAWN = 13;		// count, margin width, margin height, then the ShapeSpawner's arguments
+  public static final int EDIT = 14;		// the ShapeEdit's arguments, made to the selected shapes
+  public static final int[] ARGUMENT_COUNTS = { 4, 4, 4, 1, 1, 1, 1, 1, 1, 1, 0, 2, 1, 3 + ShapeSpawner.ARGUMENTS, ShapeEdit.ARGUMENTS };
+  public static final int MAGIC = 0x4A494E50;	// "JINP"
+  public static final short VERSION = 3;		// the version written; 2 added SPAWN, 3 added EDIT
+  private long seed;						// the seed of the world's random values
+  private int size = 0;						// the number of events
+  private long[] ticks = new long[64];		// the tick of each event, counted from the start of the log
+  private byte[] kinds = new byte[64];		// the kind of each event
+  private int[] starts = new int[65];		// where each event's arguments start, and where the next would
+  private int[] arguments = new int[256];	// the arguments of every event, one after another
+
+  /**
+   * Constructor to create an empty log
+   * @param s 	the seed of the world's random values
+   */
+  public InputLog(long s) {
+    seed = s;
+  }
+
+  /**
+   * Return the seed of the world's random values
+   * @return the seed
+   */
+  public long getSeed() { return seed; }
+
+  /**
+   * Return the number of events in the log
+   * @return the event count
+   */
+  public int size() { return size; }
+
+  /**
+   * Return the tick an event took effect on
+   * @param k 	the event number
+   * @return the ticks since the log started
+   */
+  public long getTick(int k) { return ticks[k]; }
+
+  /**
+   * Return the kind of an event
+   * @param k 	the event number
+   * @return CLICK to SPAWN
+   */
+  public int getKind(int k) { return kinds[k]; }
+
+  /**
+   * Return the arguments of an event
+   * @param k 	the event number
+   * @return a copy of the arguments
+   */
+  public int[] getArguments(int k) {
+    return Arrays.copyOfRange(arguments, starts[k], starts[k + 1]);
+  }
+
+  /**
+   * Add an event at the end of the log
+   * @param tick 	the ticks since the log started, no earlier than the last event's
+   * @param kind 	CLICK to SPAWN
+   * @param args 	the arguments, as many as ARGUMENT_COUNTS gives the kind
+   * @throws IllegalArgumentException if the event could not be replayed
+   */
+  public void add(long tick, int kind, int... args) {
+    if (kind < 0 || kind >= ARGUMENT_COUNTS.length || args.length != ARGUMENT_COUNTS[kind])
+      throw new IllegalArgumentException("Bad input event " + kind + " with " + args.length + " arguments");
+    // a path no shape could move on would stop the simulation when replayed
+    if (kind == PATH_TYPE && !MovingShape.isPath(args[0]))
+      throw new IllegalArgumentException("Unknown path " + args[0]);
+    if (kind == EDIT)
+      ShapeEdit.check(args, 0);
+    if (tick < (size == 0 ? 0 : ticks[size - 1]))
+      throw new IllegalArgumentException("Input event at tick " + tick + " is out of order");
+    if (size + 1 == ticks.length) {
+      ticks = Arrays.copyOf(ticks, ticks.length * 2);
+      kinds = Arrays.copyOf(kinds, kinds.length * 2);
+      starts = Arrays.copyOf(starts, starts.length * 2);
+    }
+    int start = starts[size];
+    if (start + args.length > arguments.length)
+      arguments = Arrays.copyOf(arguments, Math.max(arguments.length * 2, start + args.length));
+    System.arraycopy(args, 0, arguments, start, args.length);
+    ticks[size] = tick;
+    kinds[size] = (byte) kind;
+    starts[++size] = start + args.length;
+  }
+
+  /**
+   * Write the log to a file
+   * @param file 	the file to write, replaced if it exists
+   */
+  public void save(File file) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      out.writeLong(seed);
+      out.writeInt(size);
+      long last = 0;
+      for (int k = 0; k < size; k++) {
+        writeVarLong(out, ticks[k] - last);
+        last = ticks[k];
+        out.writeByte(kinds[k]);
+        for (int a = starts[k]; a < starts[k + 1]; a++)
+          writeVarLong(out, ((arguments[a] << 1) ^ (arguments[a] >> 31)) & 0xFFFFFFFFL);	// small negatives stay small
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Read a log from a file
+   * @param file 	the file to read
+   * @return the log
+   */
+  public static InputLog load(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC)
+        throw new IOException("Not an input log");
+      short version = in.readShort();
+      if (version < 1 || version > VERSION)
+        throw new IOException("Unsupported input log version " + version);
+      InputLog log = new InputLog(in.readLong());
+      int count = in.readInt();
+      long tick = 0;
+      int[][] args = new int[ARGUMENT_COUNTS.length][];
+      for (int kind = 0; kind < args.length; kind++)
+        args[kind] = new int[ARGUMENT_COUNTS[kind]];
+      for (int k = 0; k < count; k++) {
+        tick += readVarLong(in);
+        int kind = in.readUnsignedByte();
+        if (kind >= ARGUMENT_COUNTS.length)
+          throw new IOException("Bad input event " + kind);
+        for (int a = 0; a < args[kind].length; a++) {
+          int v = (int) readVarLong(in);
+          args[kind][a] = (v >>> 1) ^ -(v & 1);
+        }
+        try {
+          log.add(tick, kind, args[kind]);
+        } catch (IllegalArgumentException e) {
+          throw new IOException(e.getMessage());
+        }
+      }
+      return log;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Write a non-negative number seven bits a byte, lowest first
+   */
+  private static void writeVarLong(DataOutput out, long v) throws IOException {
+    while ((v & ~0x7FL) != 0) {
+      out.writeByte((int) (v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    out.writeByte((int) v);
+  }
+
+  /**
+   * Read a number written by writeVarLong
+   */
+  private static long readVarLong(DataInput in) throws IOException {
+    long v = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      v |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return v;
+    }
+    throw new IOException("Bad number in input log");
+  }
+}
@@ -78,14 +78,15 @@ public class MainPanel extends JApplet {
     ImageIcon floatingSideWaysIcon = createImageIcon("floatingSideWays.gif");
     ImageIcon floatingSideWaysOppIcon = createImageIcon("floatingSideWaysOpp.gif");
     ImageIcon boundaryButtonIcon = createImageIcon("boundary.gif");
-    JComboBox pathComboBox = new JComboBox(new Object[] {boundaryButtonIcon, fallingButtonIcon, floatingSideWaysIcon, floatingSideWaysOppIcon, flyingButtonIcon});
+    ImageIcon splineButtonIcon = createImageIcon("spline.gif");
+    JComboBox pathComboBox = new JComboBox(new Object[] {boundaryButtonIcon, fallingButtonIcon, floatingSideWaysIcon, floatingSideWaysOppIcon, flyingButtonIcon, splineButtonIcon});
     pathComboBox.setToolTipText("Set Path");
     pathComboBox.addActionListener( new ActionListener() {
       public void actionPerformed(ActionEvent e) {
         JComboBox cb = (JComboBox)e.getSource();
         //set the default path type based on the selection from combo box: 
 		// 0 for Boundary Path, 1 for Falling Path, 2 for right floating sideways, 
-		// 3 for left floating sideways, 4 flying path
+		// 3 for left floating sideways, 4 flying path, 5 the figure of eight SplineTrack
         panel.setDefaultPathType(cb.getSelectedIndex());
       }
     });
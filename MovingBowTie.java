@@ -8,8 +8,11 @@
  */
  
 import java.awt.*;
+import java.util.SplittableRandom;
 
 public class MovingBowTie extends MovingShape {
+  private int[] tieX = new int[6], tieY = new int[6];	// the corners, reused by every draw
+
   /** 
    * Constructor to create a bow tie with default values
    */
@@ -24,59 +27,104 @@ public class MovingBowTie extends MovingShape {
     super(x ,y ,w, h, mw ,mh, f, b ,pathType);
   }
 
+  /**
+   * Constuctor to create a bow tie shape whose path takes its random values from a generator
+   */
+  public MovingBowTie(int x, int y, int w, int h, int mw, int mh, Color f, Color b, int pathType, SplittableRandom r) {
+    super(x ,y ,w, h, mw ,mh, f, b ,pathType, r);
+  }
+
+  /** 
+   * Return the type of the shape
+   * @return BOWTIE
+   */
+  public int getShapeType() {
+    return BOWTIE;
+  }
+
   /** 
    * Draws the bow tie with the fill colour
-   * If it is selected, draw the handles
    * @param g	the Graphics control
+   * @param x	the x-coordinate of the top left corner
+   * @param y	the y-coordinate of the top left corner
    */
-  public void draw(Graphics g) {
-	Polygon bowtie = bowtieOuter();
-	Polygon centre = bowtieCentre();
-
+  protected void drawShape(Graphics g, int x, int y) {
+	bowtieOuter(x, y);
 	g.setColor(this.fill);
-	g.fillPolygon(bowtie);
+	g.fillPolygon(tieX, tieY, 6);
 
+	bowtieCentre(x, y);
 	g.setColor(this.border);
-	g.fillPolygon(centre);
-
-    drawHandles(g);
+	g.fillPolygon(tieX, tieY, 4);
   }
 
   /**
-   * Creates the outer bow tie shape
-   * @return the outer bow tie
+   * Puts the corners of the outer bow tie shape in tieX and tieY
+   * @param x	the x-coordinate of the top left corner
+   * @param y	the y-coordinate of the top left corner
    */
-  private Polygon bowtieOuter(){
+  private void bowtieOuter(int x, int y){
 	int offSet = this.height / 3;
 	int halfWidth = this.width / 2;
 
-	int[] tieX = {p.x, p.x + halfWidth, p.x + this.width, p.x + this.width, p.x + halfWidth, p.x};
-	int[] tieY = {p.y, p.y + offSet, p.y, p.y + this.height, p.y + this.height - offSet, p.y + this.height};
-
-	return new Polygon(tieX, tieY, 6);
+	tieX[0] = x;                  tieY[0] = y;
+	tieX[1] = x + halfWidth;      tieY[1] = y + offSet;
+	tieX[2] = x + this.width;     tieY[2] = y;
+	tieX[3] = x + this.width;     tieY[3] = y + this.height;
+	tieX[4] = x + halfWidth;      tieY[4] = y + this.height - offSet;
+	tieX[5] = x;                  tieY[5] = y + this.height;
   }
 
   /**
-   * Creates the centre diamond shape of the bow tie
-   * @return the centre bow tie diamond
+   * Puts the corners of the centre diamond shape of the bow tie in tieX and tieY
+   * @param x	the x-coordinate of the top left corner
+   * @param y	the y-coordinate of the top left corner
    */
-  private Polygon bowtieCentre(){
+  private void bowtieCentre(int x, int y){
 	int offSet = this.width / 4;
 	int heightOffSet = this.height / 3;
 	int halfHeight = this.height / 2;
 	int halfWidth = this.width / 2;
 
-	int[] tieX = {p.x + offSet, p.x + halfWidth, p.x + halfWidth + offSet, p.x + halfWidth};
-	int[] tieY = {p.y + halfHeight, p.y + heightOffSet, p.y + halfHeight, p.y + this.height - heightOffSet};
+	tieX[0] = x + offSet;                 tieY[0] = y + halfHeight;
+	tieX[1] = x + halfWidth;              tieY[1] = y + heightOffSet;
+	tieX[2] = x + halfWidth + offSet;     tieY[2] = y + halfHeight;
+	tieX[3] = x + halfWidth;              tieY[3] = y + this.height - heightOffSet;
+  }
 
-	return new Polygon(tieX, tieY, 4);
+  /**
+   * Return the outer bow tie at its current position
+   * @return the outline of the bow tie
+   */
+  public Shape getOutline() {
+    bowtieOuter(p.x, p.y);
+    return new Polygon(tieX, tieY, 6);	// copies the corners
   }
 
   /**
-   * Returns whether the point is in the bow tie or not
+   * Returns whether the point is in the bow tie or not, by the same
+   * crossing rule as Polygon.contains but without building a polygon
    * @return true if and only if the point is in the bow tie, false otherwise.
    */
   public boolean contains(Point mousePt) {
-    return bowtieOuter().contains(mousePt.x, mousePt.y);
+    int px = mousePt.x, py = mousePt.y;
+    if (px < p.x || py < p.y || px >= p.x + this.width || py >= p.y + this.height)
+      return false;
+    bowtieOuter(p.x, p.y);
+    int hits = 0;
+    for (int i = 0, j = 5; i < 6; j = i++) {
+      int curx = tieX[i], cury = tieY[i], lastx = tieX[j], lasty = tieY[j];
+      if (cury == lasty)
+        continue;
+      if (px >= Math.max(curx, lastx))
+        continue;
+      int lowx = cury < lasty ? curx : lastx, lowy = Math.min(cury, lasty);
+      if (py < lowy || py >= Math.max(cury, lasty))
+        continue;
+      if (px < Math.min(curx, lastx)
+          || px - lowx < (py - lowy) / (double) (lasty - cury) * (lastx - curx))
+        hits++;
+    }
+    return (hits & 1) != 0;
   }
 }
@@ -8,6 +8,8 @@
  */
  
 import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.util.SplittableRandom;
 
 public class MovingCircle extends MovingShape {
   /** 
@@ -24,17 +26,40 @@ public class MovingCircle extends MovingShape {
     super(x ,y ,w, h ,mw ,mh, f, b, pathType);
   }
 
+  /**
+   * Constuctor to create an oval shape whose path takes its random values from a generator
+   */
+  public MovingCircle(int x, int y, int w, int h, int mw, int mh, Color f, Color b, int pathType, SplittableRandom r) {
+    super(x ,y ,w, h ,mw ,mh, f, b, pathType, r);
+  }
+
+  /** 
+   * Return the type of the shape
+   * @return CIRCLE
+   */
+  public int getShapeType() {
+    return CIRCLE;
+  }
+
   /** 
    * Draws the oval with the fill colour
-   * If it is selected, draw the handles
    * @param g	the Graphics control
+   * @param x	the x-coordinate of the top left corner
+   * @param y	the y-coordinate of the top left corner
    */
-  public void draw(Graphics g) {
+  protected void drawShape(Graphics g, int x, int y) {
     g.setColor(this.fill);
-    g.fillOval(p.x, p.y, width, height);
+    g.fillOval(x, y, width, height);
     g.setColor(this.border);
-    g.drawOval(p.x, p.y, width, height);
-    drawHandles(g);
+    g.drawOval(x, y, width, height);
+  }
+
+  /** 
+   * Return the oval at its current position
+   * @return the outline of the oval
+   */
+  public Shape getOutline() {
+    return new Ellipse2D.Float(p.x, p.y, width, height);
   }
 
   /** 
@@ -43,9 +68,8 @@ public class MovingCircle extends MovingShape {
    */
   public boolean contains(Point mousePt) {
     double dx, dy;
-    Point EndPt = new Point(p.x + width, p.y + height);
-    dx = (2 * mousePt.x - p.x - EndPt.x) / (double) width;
-    dy = (2 * mousePt.y - p.y - EndPt.y) / (double) height;
+    dx = (2 * mousePt.x - p.x - (p.x + width)) / (double) width;
+    dy = (2 * mousePt.y - p.y - (p.y + height)) / (double) height;
     return dx * dx + dy * dy < 1.0;
   }
 }
@@ -8,8 +8,8 @@
  */
  
 import java.awt.*;
-import java.awt.geom.AffineTransform;
 import java.awt.geom.Arc2D;
+import java.util.SplittableRandom;
 
 public class MovingPacMan extends MovingCircle {
   private int angleStart = 45;
@@ -17,6 +17,7 @@ public class MovingPacMan extends MovingCircle {
   private int mouth = CLOSE;
   private static final int CLOSE = 0;
   private static final int OPEN = 1;
+  private Arc2D.Float arc = new Arc2D.Float(Arc2D.PIE);	// reused by every draw
 	    
   /** 
    * Constructor to create a pacman with default values
@@ -32,54 +33,95 @@ public class MovingPacMan extends MovingCircle {
     super(x ,y ,w, h ,mw ,mh, f, b, pathType);
   }
 
+  /**
+   * Constuctor to create a pacman shape whose path takes its random values from a generator
+   */
+  public MovingPacMan(int x, int y, int w, int h, int mw, int mh, Color f, Color b, int pathType, SplittableRandom r) {
+    super(x ,y ,w, h ,mw ,mh, f, b, pathType, r);
+  }
+
+  /** 
+   * Return the type of the shape
+   * @return PACMAN
+   */
+  public int getShapeType() {
+    return PACMAN;
+  }
+
+  /** 
+   * Move the pacman along its path and open or close its mouth
+   */
+  public void move() {
+    super.move();
+    mouth();
+  }
+
   /** 
    * Draw the pacman with the fill colour
-   * If it is selected, draw the handles
    * @param g	the Graphics control
+   * @param x	the x-coordinate of the top left corner
+   * @param y	the y-coordinate of the top left corner
    */
-  public void draw(Graphics g) {
+  protected void drawShape(Graphics g, int x, int y) {
     Graphics2D g2 = (Graphics2D) g;
-	Arc2D pieArc = pacMain();
-	    
-	AffineTransform at = AffineTransform.getTranslateInstance(p.x, p.y);
+    arc.setArc(x, y, this.width, this.height, angleStart, angleExtent, Arc2D.PIE);
 
     g2.setColor(this.fill);
-    g2.fill(at.createTransformedShape(pieArc));
+    g2.fill(arc);
     g2.setColor(this.border);
-    g2.draw(at.createTransformedShape(pieArc));
-    drawHandles(g);
+    g2.draw(arc);
   }
 	  
   /**
-   * Makes the pacman shape
-   * @return pacman		the pacman shape
+   * Return the pacman at its current position, with its mouth as it is now
+   * @return the outline of the pacman
    */
-  private Arc2D pacMain(){
-	Arc2D pacman = new Arc2D.Float(Arc2D.PIE);
-	pacman.setFrame(0, 0, this.width, this.height);
-	pacman.setAngleStart(angleStart);
-	pacman.setAngleExtent(angleExtent);
-	mouth();
-	return pacman;
+  public Shape getOutline() {
+    return new Arc2D.Float(p.x, p.y, this.width, this.height, angleStart, angleExtent, Arc2D.PIE);
   }
 
   /**
    * Changes the current mouth position of pacman
    */
   private void mouth() {
-    if (mouth == CLOSE) {
-      angleStart -= 5;
-      angleExtent += 10;
-    }
-    if (mouth == OPEN) {
-      angleStart += 5;
-      angleExtent -= 10;
-    }
-    if (angleStart == 0){
-      mouth = OPEN;
-    }
-    if (angleStart > 45){
-      mouth = CLOSE;
-    }
-  }  
+    setMouth(nextMouth(getMouth()));
+  }
+
+  /**
+   * Return the mouth state packed into one int, the start angle
+   * times two plus one if the mouth is opening
+   * @return the packed mouth state
+   */
+  public int getMouth() {
+    return angleStart * 2 + mouth;
+  }
+
+  /**
+   * Set the mouth state from a value returned by getMouth
+   * @param m	the packed mouth state
+   */
+  public void setMouth(int m) {
+    angleStart = m >> 1;
+    angleExtent = 360 - 2 * angleStart;
+    mouth = m & 1;
+  }
+
+  /**
+   * Return the mouth state one step after the given one
+   * @param m	the packed mouth state
+   * @return the next packed mouth state
+   */
+  public static int nextMouth(int m) {
+    int start = m >> 1;
+    int state = m & 1;
+    if (state == CLOSE)
+      start -= 5;
+    if (state == OPEN)
+      start += 5;
+    if (start == 0)
+      state = OPEN;
+    if (start > 45)
+      state = CLOSE;
+    return start * 2 + state;
+  }
 }
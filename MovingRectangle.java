@@ -8,6 +8,7 @@
  */
  
 import java.awt.*;
+import java.util.SplittableRandom;
 
 public class MovingRectangle extends MovingShape {
   /** 
@@ -24,17 +25,32 @@ public class MovingRectangle extends MovingShape {
     super(x ,y ,w, h, mw ,mh, f, b ,pathType);
   }
 
+  /**
+   * Constuctor to create a rectangle shape whose path takes its random values from a generator
+   */
+  public MovingRectangle(int x, int y, int w, int h, int mw, int mh, Color f, Color b, int pathType, SplittableRandom r) {
+    super(x ,y ,w, h, mw ,mh, f, b ,pathType, r);
+  }
+
+  /** 
+   * Return the type of the shape
+   * @return RECTANGLE
+   */
+  public int getShapeType() {
+    return RECTANGLE;
+  }
+
   /** 
    * Draw the rectangle with the fill colour
-   * If it is selected, draw the handles
    * @param g	the Graphics control
+   * @param x	the x-coordinate of the top left corner
+   * @param y	the y-coordinate of the top left corner
    */
-  public void draw(Graphics g) {
+  protected void drawShape(Graphics g, int x, int y) {
     g.setColor(this.fill);
-    g.fillRect(p.x, p.y, width, height);
+    g.fillRect(x, y, width, height);
     g.setColor(this.border);
-    g.drawRect(p.x, p.y, width, height);
-    drawHandles(g);
+    g.drawRect(x, y, width, height);
   }
 
   /** 
@@ -9,17 +9,25 @@
  */
 
 import java.awt.*;
+import java.util.SplittableRandom;
 
 public abstract class MovingShape {
+  public static final int CIRCLE = 0;		// the type of a MovingCircle
+  public static final int RECTANGLE = 1;	// the type of a MovingRectangle
+  public static final int PACMAN = 2;		// the type of a MovingPacMan
+  public static final int BOWTIE = 3;		// the type of a MovingBowTie
 
   public int marginWidth, marginHeight; // the margin of the animation panel area
   protected Point p; 					// the top left corner of shapes
+  protected int prevX, prevY;			// the top left corner before the last move
   protected int width,					// the width of shapes
   	height;								// the height of the shapes
   protected MovingPath path;			// the moving path of shapes
   protected boolean selected = false;   // draw handles if selected
   protected Color fill, 				// the fill colour of the shape
   	border;								// the border colour of the shape
+  protected SplittableRandom random;	// the source of the path's random values
+  protected SelectionSet selection = null;	// the set kept up to date with the selected property, if any
   
   /** 
    * Constuctor to create a shape with default values
@@ -41,7 +49,28 @@ public abstract class MovingShape {
    * @param typeOfPath 		the path of the new shape
    */
   public MovingShape(int x, int y, int w, int h, int mw, int mh, Color f, Color b, int pathType) {
+    this(x, y, w, h, mw, mh, f, b, pathType, new SplittableRandom());
+  }
+
+  /** 
+   * Constuctor to create a shape whose paths take their random values from a generator,
+   * so that a world made from one seed behaves the same every time
+   * @param x 		the x-coordinate of the new shape
+   * @param y		the y-coordinate of the new shape
+   * @param w 		the width of the new shape
+   * @param h		the height of the new shape
+   * @param mw 		the margin width of the animation panel
+   * @param mh		the margin height of the animation panel
+   * @param f		the colour to set the middle of the shape
+   * @param b		the colour to set the border of the shape
+   * @param typeOfPath 		the path of the new shape
+   * @param r		the generator, owned by the shape from now on
+   */
+  public MovingShape(int x, int y, int w, int h, int mw, int mh, Color f, Color b, int pathType, SplittableRandom r) {
+    random = r;
     p = new Point(x,y);
+    prevX = x;
+    prevY = y;
     marginWidth = mw;
     marginHeight = mh;
     width = w;
@@ -63,6 +92,36 @@ public abstract class MovingShape {
    */
   public int getY() { return p.y;}
 
+  /**
+   * Return the width of the shape.
+   * @return the width
+   */
+  public int getWidth() { return width; }
+
+  /**
+   * Return the height of the shape.
+   * @return the height
+   */
+  public int getHeight() { return height; }
+
+  /**
+   * Return the fill colour of the shape.
+   * @return the fill colour
+   */
+  public Color getFillColor() { return fill; }
+
+  /**
+   * Return the border colour of the shape.
+   * @return the border colour
+   */
+  public Color getBorderColor() { return border; }
+
+  /**
+   * Return the moving path of the shape.
+   * @return the moving path
+   */
+  public MovingPath getPath() { return path; }
+
   /**
    * Return the selected property of the shape.
    * @return the selected property
@@ -74,7 +133,25 @@ public abstract class MovingShape {
    * When the shape is selected, its handles are shown.
    * @param s 	the selected value
    */
-  public void setSelected(boolean s) { selected = s; }
+  public void setSelected(boolean s) {
+    selected = s;
+    if (selection != null) {
+      if (s)
+        selection.add(this);
+      else
+        selection.remove(this);
+    }
+  }
+
+  /** 
+   * Set the set which the shape adds itself to while it is selected,
+   * adding it now if it is already selected
+   * @param set 	the set, or null for none
+   */
+  public void setSelection(SelectionSet set) {
+    selection = set;
+    setSelected(selected);
+  }
 
   /** 
    * Set the width of the shape.
@@ -119,13 +196,23 @@ public abstract class MovingShape {
    * @param g 	the Graphics control
    */
   public void drawHandles(Graphics g) {
+    drawHandles(g, p.x, p.y);
+  }
+
+  /** 
+   * Draw the handles of the shape with its top left corner at (x, y)
+   * @param g 	the Graphics control
+   * @param x 	the x-coordinate to draw at
+   * @param y 	the y-coordinate to draw at
+   */
+  public void drawHandles(Graphics g, int x, int y) {
     // if the shape is selected, then draw the handles
     if (isSelected()) {
       g.setColor(Color.black);
-      g.fillRect(p.x -2, p.y-2, 4, 4);
-      g.fillRect(p.x + width -2, p.y + height -2, 4, 4);
-      g.fillRect(p.x -2, p.y + height -2, 4, 4);
-      g.fillRect(p.x + width -2, p.y-2, 4, 4);
+      g.fillRect(x -2, y-2, 4, 4);
+      g.fillRect(x + width -2, y + height -2, 4, 4);
+      g.fillRect(x -2, y + height -2, 4, 4);
+      g.fillRect(x + width -2, y-2, 4, 4);
     }
   }
 
@@ -139,6 +226,21 @@ public abstract class MovingShape {
     marginHeight = h;
   }
 
+  /**
+   * Abstract getShapeType method
+   * @return the type of the shape, one of CIRCLE, RECTANGLE, PACMAN or BOWTIE
+   */
+  public abstract int getShapeType();
+
+  /**
+   * Return the outline of the shape at its current position,
+   * used to test whether two shapes overlap
+   * @return the outline, the bounding rectangle unless a subclass knows better
+   */
+  public Shape getOutline() {
+    return new Rectangle(p.x, p.y, width, height);
+  }
+
   /**
    * Abstract contains method
    * Returns whether the point p is inside the shape or not.
@@ -146,12 +248,109 @@ public abstract class MovingShape {
    */
   public abstract boolean contains(Point p);
 
+  /** 
+   * Draw the shape and its handles at the current position
+   * @param g 	the Graphics control
+   */
+  public void draw(Graphics g) {
+    draw(g, p.x, p.y);
+  }
+
+  /** 
+   * Draw the shape and its handles with its top left corner at (x, y)
+   * @param g 	the Graphics control
+   * @param x 	the x-coordinate to draw at
+   * @param y 	the y-coordinate to draw at
+   */
+  public void draw(Graphics g, int x, int y) {
+    drawShape(g, x, y);
+    drawHandles(g, x, y);
+  }
+
+  /** 
+   * Draw the shape part way between its previous and current position.
+   * A move that wraps the shape around the panel is not interpolated.
+   * @param g 	the Graphics control
+   * @param alpha 	the fraction of the step between the two positions, from 0 to 1
+   */
+  public void drawInterpolated(Graphics g, double alpha) {
+    drawInterpolated(g, alpha, null);
+  }
+
+  /** 
+   * Draw the shape part way between its previous and current position,
+   * from its sprite if a cache is given.
+   * @param g 	the Graphics control
+   * @param alpha 	the fraction of the step between the two positions, from 0 to 1
+   * @param sprites 	the sprite cache to draw from, or null to draw the shape itself
+   */
+  public void drawInterpolated(Graphics g, double alpha, SpriteCache sprites) {
+    int x = getInterpolatedX(alpha), y = getInterpolatedY(alpha);
+    if (sprites != null)
+      sprites.draw(this, g, x, y);
+    else
+      draw(g, x, y);
+  }
+
+  /** 
+   * Return the x-coordinate the shape is drawn at part way through a step
+   * @param alpha 	the fraction of the step between the two positions, from 0 to 1
+   * @return the interpolated x-coordinate of the top left corner
+   */
+  public int getInterpolatedX(double alpha) {
+    return wrapped() ? p.x : prevX + (int) Math.round((p.x - prevX) * alpha);
+  }
+
+  /** 
+   * Return the y-coordinate the shape is drawn at part way through a step
+   * @param alpha 	the fraction of the step between the two positions, from 0 to 1
+   * @return the interpolated y-coordinate of the top left corner
+   */
+  public int getInterpolatedY(double alpha) {
+    return wrapped() ? p.y : prevY + (int) Math.round((p.y - prevY) * alpha);
+  }
+
+  /** 
+   * Return whether the last step wrapped the shape around the panel
+   */
+  private boolean wrapped() {
+    return Math.abs(p.x - prevX) * 2 > marginWidth || Math.abs(p.y - prevY) * 2 > marginHeight;
+  }
+
+
   /** 
    * Abstract draw method
-   * draw the shape
+   * draw the shape without its handles
    * @param g 	the Graphics control
+   * @param x 	the x-coordinate of the top left corner
+   * @param y 	the y-coordinate of the top left corner
+   */
+  protected abstract void drawShape(Graphics g, int x, int y);
+
+  /** 
+   * Make a shape of the given type
+   * @param type 	the shape type, CIRCLE to BOWTIE
+   * @return the new shape
    */
-  public abstract void draw(Graphics g);
+  public static MovingShape create(int type, int x, int y, int w, int h, int mw, int mh, Color f, Color b, int pathType) {
+    return create(type, x, y, w, h, mw, mh, f, b, pathType, new SplittableRandom());
+  }
+
+  /** 
+   * Make a shape of the given type whose paths take their random values from a generator
+   * @param type 	the shape type, CIRCLE to BOWTIE
+   * @param r 	the generator, owned by the shape from now on
+   * @return the new shape
+   */
+  public static MovingShape create(int type, int x, int y, int w, int h, int mw, int mh, Color f, Color b, int pathType, SplittableRandom r) {
+    switch (type) {
+      case CIRCLE : return new MovingCircle(x, y, w, h, mw, mh, f, b, pathType, r);
+      case RECTANGLE : return new MovingRectangle(x, y, w, h, mw, mh, f, b, pathType, r);
+      case PACMAN : return new MovingPacMan(x, y, w, h, mw, mh, f, b, pathType, r);
+      case BOWTIE : return new MovingBowTie(x, y, w, h, mw, mh, f, b, pathType, r);
+      default : throw new IllegalArgumentException("Unknown shape type " + type);
+    }
+  }
 
   /** 
    * Set the path of the shape.
@@ -161,6 +360,8 @@ public abstract class MovingShape {
    *  MovingPath.FloatingSideWays is the right floating path
    *  MovingPath.FloatingSideWaysOpp is the left floating path
    *  MovingPath.Flying is the flying path
+   *  MovingPath.SPLINE and up are the tracks registered with SplineTrack
+   * @throws IllegalArgumentException if pathID is not one of these
    */
   public void setPath(int pathID) {
     switch (pathID) {
@@ -184,13 +385,31 @@ public abstract class MovingShape {
         path = new FlyingPath();
         break;
       }
+      default : {
+        SplineTrack track = SplineTrack.get(pathID);
+        if (track == null)
+          throw new IllegalArgumentException("Unknown path " + pathID);
+        path = new SplinePath(track);
+        break;
+      }
     }
   }
 
   /** 
-   * Move the shape by the path
+   * Return whether a path Id is one setPath takes
+   * @param pathID 	the integer value of the path
+   * @return true if and only if it is a built in path or a registered track
+   */
+  public static boolean isPath(int pathID) {
+    return (pathID >= MovingPath.BOUNDARY && pathID <= MovingPath.FLYINGPATH) || SplineTrack.get(pathID) != null;
+  }
+
+  /** 
+   * Move the shape by the path, remembering where it was
    */
   public void move() {
+    prevX = p.x;
+    prevY = p.y;
     path.move();
   }
 
@@ -209,6 +428,7 @@ public abstract class MovingShape {
     public static final int FLOATINGSIDEWAYS = 2;	// The ID of the right floating path
     public static final int FLOATINGSIDEWAYSOPP = 3;// The ID of the left floating path
     public static final int FLYINGPATH = 4;			// The ID of the flying path
+    public static final int SPLINE = 5;				// The ID of the first SplineTrack
     protected int deltaX, deltaY;					// moving distance
 
     /** 
@@ -216,6 +436,72 @@ public abstract class MovingShape {
      */
     public MovingPath() { }
 
+    /**
+     * Abstract getType method
+     * @return the Id of the path, as passed to setPath
+     */
+    public abstract int getType();
+
+    /**
+     * Return the amplitude of the sideways swing, if the path has one.
+     * @return the amplitude
+     */
+    public double getAmplitude() { return 0; }
+
+    /**
+     * Return the angle reached by the sideways swing, if the path has one.
+     * @return the phase in radians
+     */
+    public double getPhase() { return 0; }
+
+    /**
+     * Return the number of swing steps taken, if the path has a swing.
+     * @return the step count
+     */
+    public int getStep() { return 0; }
+
+    /**
+     * Return the direction of travel, if the path has one.
+     * @return the direction in degrees
+     */
+    public int getDirection() { return 0; }
+
+    /**
+     * Return the horizontal moving distance
+     * @return the x distance per step
+     */
+    public int getDeltaX() { return deltaX; }
+
+    /**
+     * Return the vertical moving distance
+     * @return the y distance per step
+     */
+    public int getDeltaY() { return deltaY; }
+
+    /**
+     * Restore the state of the path, as read from its getters
+     * @param dx 	the x distance per step
+     * @param dy 	the y distance per step
+     * @param amplitude 	the amplitude of the swing, if the path has one
+     * @param steps 	the number of swing steps taken, if the path has a swing
+     * @param dir 	the direction of travel in degrees, if the path has one
+     */
+    public void setState(int dx, int dy, double amplitude, int steps, int dir) {
+      deltaX = dx;
+      deltaY = dy;
+    }
+
+    /**
+     * Turn the shape around after it hits another shape
+     * @param horizontal 	true to reverse the horizontal movement, false for the vertical
+     */
+    public void bounce(boolean horizontal) {
+      if (horizontal)
+        deltaX = -deltaX;
+      else
+        deltaY = -deltaY;
+    }
+
     /** 
 	 * Abstract move method
      * move the shape according to the path
@@ -229,27 +515,50 @@ public abstract class MovingShape {
    *  ===============================================================================
    */
   public class FallingPath extends MovingPath {
-    private double am = 0, stx = 0, sinDeltax = 0;
+    private double am = 0;	// the amplitude of the swing
+    private int step = 0;		// the number of swing steps taken
 
     /** 
 	 * Constructor to initialise values for a falling path
      */
     public FallingPath() {
-      am = Math.random() * 20;		//set amplitude variables
-      stx = 0.5;					//set step variables
+      am = random.nextDouble() * 20;		//set amplitude variables
       deltaY = 5;
-      sinDeltax = 0;
+      step = 0;
+    }
+
+    public int getType() { return FALLING; }
+
+    public double getAmplitude() { return am; }
+
+    public double getPhase() { return step * TrajectoryTable.STEP; }
+
+    public int getStep() { return step; }
+
+    public void setState(int dx, int dy, double amplitude, int steps, int dir) {
+      super.setState(dx, dy, amplitude, steps, dir);
+      am = amplitude;
+      step = steps;
+    }
+
+    public void bounce(boolean horizontal) {
+      if (horizontal)	// swing the other way
+        am = -am;
+      else
+        super.bounce(horizontal);
     }
 
     /** 
 	 * Move the shape
      */
     public void move() {
-      sinDeltax = sinDeltax + stx;
-      p.x = (int) Math.round(p.x + am * Math.sin(sinDeltax));
+      step++;
+      p.x = (int) Math.round(p.x + am * TrajectoryTable.sin(step));
       p.y = p.y + deltaY;
       if (p.y > marginHeight) //if it reaches the bottom of the frame, start again from the top
         p.y = 0;
+      else if (p.y < 0 - height) //if it has bounced off the top of the frame, start again from the bottom
+        p.y = marginHeight;
       }
   }
 
@@ -265,11 +574,25 @@ public abstract class MovingShape {
 	 * Constructor to initialise values for a boundary path
      */
     public BoundaryPath(int speedx, int speedy) {
-      deltaX = (int) (Math.random() * speedx) + 1;
-      deltaY = (int) (Math.random() * speedy) + 1;
+      deltaX = random.nextInt(speedx) + 1;
+      deltaY = random.nextInt(speedy) + 1;
       direction = 0;
     }
 
+    public int getType() { return BOUNDARY; }
+
+    public int getDirection() { return direction; }
+
+    public void setState(int dx, int dy, double amplitude, int steps, int dir) {
+      super.setState(dx, dy, amplitude, steps, dir);
+      direction = dir;
+    }
+
+    public void bounce(boolean horizontal) {
+      if (horizontal == (direction == 90 || direction == 270))
+        direction = (direction + 180) % 360;	// only turn round along the line it is moving on
+    }
+
     /** 
 	 * Move the shape
      */
@@ -319,27 +642,50 @@ public abstract class MovingShape {
    *  ===============================================================================
    */
   public class FloatingSideWaysPath extends MovingPath {
-    private double am = 0, sty = 0, sinDeltay = 0;
+    private double am = 0;	// the amplitude of the swing
+    private int step = 0;		// the number of swing steps taken
 
     /**
 	 * Constructor to initialise values for a left floating path
      */
     public FloatingSideWaysPath() {
-      am = Math.random() * 20;	//set amplitude variables
-      sty = 0.5;				//set step variables
+      am = random.nextDouble() * 20;	//set amplitude variables
       deltaX = 5;
-      sinDeltay = 0;
+      step = 0;
+    }
+
+    public int getType() { return FLOATINGSIDEWAYS; }
+
+    public double getAmplitude() { return am; }
+
+    public double getPhase() { return step * TrajectoryTable.STEP; }
+
+    public int getStep() { return step; }
+
+    public void setState(int dx, int dy, double amplitude, int steps, int dir) {
+      super.setState(dx, dy, amplitude, steps, dir);
+      am = amplitude;
+      step = steps;
+    }
+
+    public void bounce(boolean horizontal) {
+      if (horizontal)
+        super.bounce(horizontal);
+      else				// swing the other way
+        am = -am;
     }
 
     /** 
 	 * Move the shape
      */
     public void move() {
-      sinDeltay = sinDeltay + sty;
-      p.y = (int) Math.round(p.y + am * Math.sin(sinDeltay));
+      step++;
+      p.y = (int) Math.round(p.y + am * TrajectoryTable.sin(step));
       p.x = p.x + deltaX;
       if (p.x > marginWidth) // if it reaches the right of the frame, start again from the left
         p.x = 0 - width;
+      else if (p.x < 0 - width) // if it has bounced off the left of the frame, start again from the right
+        p.x = marginWidth;
       }
   }
   
@@ -349,27 +695,50 @@ public abstract class MovingShape {
    *  ===============================================================================
    */
   public class FloatingSideWaysPathOpp extends MovingPath {
-    private double am = 0, sty = 0, sinDeltay = 0;
+    private double am = 0;	// the amplitude of the swing
+    private int step = 0;		// the number of swing steps taken
 
     /** 
 	 * Constructor to initialise values for a right floating path
      */
     public FloatingSideWaysPathOpp() {
-      am = Math.random() * 20;	//set amplitude variables
-      sty = 0.5;				//set step variables
+      am = random.nextDouble() * 20;	//set amplitude variables
       deltaX = -5;
-      sinDeltay = 0;
+      step = 0;
+    }
+
+    public int getType() { return FLOATINGSIDEWAYSOPP; }
+
+    public double getAmplitude() { return am; }
+
+    public double getPhase() { return step * TrajectoryTable.STEP; }
+
+    public int getStep() { return step; }
+
+    public void setState(int dx, int dy, double amplitude, int steps, int dir) {
+      super.setState(dx, dy, amplitude, steps, dir);
+      am = amplitude;
+      step = steps;
+    }
+
+    public void bounce(boolean horizontal) {
+      if (horizontal)
+        super.bounce(horizontal);
+      else				// swing the other way
+        am = -am;
     }
 
     /** 
 	 * Move the shape
      */
     public void move() {
-      sinDeltay = sinDeltay + sty;
-      p.y = (int) Math.round(p.y + am * Math.sin(sinDeltay));
+      step++;
+      p.y = (int) Math.round(p.y + am * TrajectoryTable.sin(step));
       p.x = p.x + deltaX;
       if (p.x < 0 - width ) // if it reaches the left of the frame, start again from the right
         p.x = marginWidth;
+      else if (p.x > marginWidth) // if it has bounced off the right of the frame, start again from the left
+        p.x = 0 - width;
   	}
   }
   
@@ -379,29 +748,96 @@ public abstract class MovingShape {
    *  ===============================================================================
    */
     public class FlyingPath extends MovingPath {
-      private double am = 0, stx = 0, sinDeltax = 0;
+      private double am = 0;	// the amplitude of the swing
+    private int step = 0;		// the number of swing steps taken
 
       /** 
 	   * Constructor to initialise values for a flying path
        */
       public FlyingPath() {
-	    am = Math.random() * 20;	//set amplitude variables
-  	    stx = 0.5; 					//set step variables
+	    am = random.nextDouble() * 20;	//set amplitude variables
 	    deltaY = 5;
-        sinDeltax = 0;
+        step = 0;
+      }
+
+      public int getType() { return FLYINGPATH; }
+
+      public double getAmplitude() { return am; }
+
+      public double getPhase() { return step * TrajectoryTable.STEP; }
+
+      public int getStep() { return step; }
+
+      public void setState(int dx, int dy, double amplitude, int steps, int dir) {
+        super.setState(dx, dy, amplitude, steps, dir);
+        am = amplitude;
+        step = steps;
+      }
+
+      public void bounce(boolean horizontal) {
+        if (horizontal)	// swing the other way
+          am = -am;
+        else
+          super.bounce(horizontal);
       }
 
       /** 
 	   * Move the shape
        */
       public void move() {
-	    sinDeltax = sinDeltax + stx;
-	    p.x = (int) Math.round(p.x + am * Math.sin(sinDeltax));
+	    step++;
+	    p.x = (int) Math.round(p.x + am * TrajectoryTable.sin(step));
 	    p.y = p.y - deltaY;
 	    if (p.y < 0 - height) // if it reaches the top of the frame, start again from the bottom
 	      p.y = marginHeight;
+	    else if (p.y > marginHeight) // if it has bounced off the bottom of the frame, start again from the top
+	      p.y = 0;
       }
     }
-  
+
+  /*
+   *  ===============================================================================
+   *  SplinePath : A path along a SplineTrack, looking up where the shape is
+   *  after each step in the track's table. deltaX is 1 or -1, the way round
+   *  the track the shape goes.
+   *  ===============================================================================
+   */
+  public class SplinePath extends MovingPath {
+    private SplineTrack track;	// the places the shape goes through
+    private int step;			// the step of the track reached
+
+    /**
+     * Constructor to start a shape at a random place on a track
+     * @param t 	the track
+     */
+    public SplinePath(SplineTrack t) {
+      track = t;
+      deltaX = 1;
+      step = random.nextInt(t.length());
+    }
+
+    public int getType() { return track.getId(); }
+
+    public int getStep() { return step; }
+
+    public void setState(int dx, int dy, double amplitude, int steps, int dir) {
+      super.setState(dx, dy, amplitude, steps, dir);
+      step = Math.floorMod(steps, track.length());
+    }
+
+    public void bounce(boolean horizontal) {
+      deltaX = -deltaX;		// go back the way it came
+    }
+
+    /**
+     * Move the shape
+     */
+    public void move() {
+      step = track.next(step, deltaX);
+      p.x = track.getX(step, marginWidth - width);
+      p.y = track.getY(step, marginHeight - height);
+    }
+  }
+
  // ======================================================================================== Inner class End
 }
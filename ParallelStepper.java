@@ -0,0 +1,144 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  ParallelStepper.java : Moves shapes by one step on a ForkJoinPool.
+ *  The shapes are split in halves until a chunk is no bigger than the threshold,
+ *  and each chunk is moved in order. Every shape's move only touches that shape,
+ *  so the result is the same as the sequential loop.
+ *  ===============================================================================
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ParallelStepper {
+  public static final int DEFAULT_THRESHOLD = 4096;	// the default chunk size
+  private ForkJoinPool pool;					// the pool running the chunks
+  private volatile int threshold;				// the largest chunk moved by one task
+  private MovingShape[] buffer = new MovingShape[0];	// the shapes being stepped
+
+  /**
+   * Constructor to step on the common pool with the default threshold
+   */
+  public ParallelStepper() {
+    this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * Constructor of the ParallelStepper
+   * @param p 	the pool to run on
+   * @param t 	the largest number of shapes moved by one task
+   */
+  public ParallelStepper(ForkJoinPool p, int t) {
+    pool = p;
+    setThreshold(t);
+  }
+
+  /**
+   * Set the parallelism threshold. Fewer shapes than this are moved on the calling thread.
+   * @param t 	the largest number of shapes moved by one task, at least 1
+   */
+  public void setThreshold(int t) {
+    threshold = Math.max(1, t);
+  }
+
+  /**
+   * Return the parallelism threshold
+   * @return the largest number of shapes moved by one task
+   */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Move every shape in the list by one step. The caller must stop other
+   * threads changing the list while it is stepped.
+   * @param shapes 	the shapes to move
+   */
+  public void step(List<MovingShape> shapes) {
+    int n = shapes.size();
+    if (n <= threshold) {
+      for (int i = 0; i < n; i++)
+        shapes.get(i).move();
+      return;
+    }
+    // copy out first, so the workers never need the list's lock
+    if (buffer.length < n)
+      buffer = new MovingShape[n + (n >> 1)];
+    buffer = shapes.toArray(buffer);
+    pool.invoke(new ShapeTask(buffer, 0, n, threshold));
+    Arrays.fill(buffer, 0, n, null);
+  }
+
+  /**
+   * Move every shape in the store by one step
+   * @param store 	the shapes to move
+   */
+  public void step(ShapeStore store) {
+    int n = store.size();
+    if (n <= threshold)
+      store.moveAll();
+    else
+      pool.invoke(new StoreTask(store, 0, n, threshold));
+  }
+
+  // Inner class ===================================================================== Inner class start
+
+  /*
+   *  ===============================================================================
+   *  ShapeTask : Moves a range of an array of shapes.
+   *  ===============================================================================
+   */
+  private static class ShapeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;	// tasks are never serialized
+    private MovingShape[] shapes;
+    private int from, to, threshold;
+
+    ShapeTask(MovingShape[] s, int f, int t, int th) {
+      shapes = s;
+      from = f;
+      to = t;
+      threshold = th;
+    }
+
+    protected void compute() {
+      if (to - from <= threshold) {
+        for (int i = from; i < to; i++)
+          shapes[i].move();
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(new ShapeTask(shapes, from, mid, threshold), new ShapeTask(shapes, mid, to, threshold));
+      }
+    }
+  }
+
+  /*
+   *  ===============================================================================
+   *  StoreTask : Moves a range of rows of a ShapeStore.
+   *  ===============================================================================
+   */
+  private static class StoreTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;	// tasks are never serialized
+    private ShapeStore store;
+    private int from, to, threshold;
+
+    StoreTask(ShapeStore s, int f, int t, int th) {
+      store = s;
+      from = f;
+      to = t;
+      threshold = th;
+    }
+
+    protected void compute() {
+      if (to - from <= threshold) {
+        store.moveRange(from, to);
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(new StoreTask(store, from, mid, threshold), new StoreTask(store, mid, to, threshold));
+      }
+    }
+  }
+
+ // ======================================================================================== Inner class End
+}
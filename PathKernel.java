@@ -0,0 +1,52 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  PathKernel.java : Steps a range of rows of a ShapeStore, each row giving the
+ *  same result as the matching MovingPath.move. SCALAR moves the rows one at a
+ *  time. VectorPathKernel moves them several at a time with the incubating
+ *  Vector API, which must be compiled and run with
+ *  --add-modules jdk.incubator.vector, so it is only ever loaded by name and
+ *  load() falls back to SCALAR when it is not there.
+ *  Kernels keep no state, so one kernel can step several ranges at once.
+ *  ===============================================================================
+ */
+
+public interface PathKernel {
+  // moves the rows one at a time
+  PathKernel SCALAR = new PathKernel() {
+    public void move(ShapeStore store, int from, int to) {
+      store.moveRows(from, to);
+    }
+
+    public String getName() {
+      return "scalar";
+    }
+  };
+
+  /**
+   * Move the shapes in a range of rows by one step
+   * @param store 	the shapes
+   * @param from 	the first row, inclusive
+   * @param to 	the last row, exclusive
+   */
+  void move(ShapeStore store, int from, int to);
+
+  /**
+   * Return the name of the kernel, for reports
+   * @return the name
+   */
+  String getName();
+
+  /**
+   * Return the vector kernel if it was compiled and the Vector API is present, or else SCALAR
+   * @return the fastest kernel available
+   */
+  static PathKernel load() {
+    try {
+      return (PathKernel) Class.forName("VectorPathKernel").getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return SCALAR;		// not compiled, or run without the jdk.incubator.vector module
+    }
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  PerfMetrics.java : Timings of the animation's phases, kept in log-linear
+ *  histograms. Recording is lock free and cheap enough to leave on: a bucket
+ *  per eighth of each power of two of nanoseconds, counted with atomic adds.
+ *  Once a second a reader rolls the live counts into the interval being
+ *  reported, from which the percentiles, the frame rate and the allocation
+ *  rate are read. The same numbers are published over JMX.
+ *  ===============================================================================
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+public class PerfMetrics implements PerfMetricsMBean {
+  public static final int MOVE = 0;			// stepping the shapes
+  public static final int DRAW = 1;			// drawing the shapes
+  public static final int PAINT = 2;		// painting a whole frame
+  public static final int HIT_TEST = 3;		// finding the shapes under a point or rectangle
+  public static final int FRAME = 4;		// the time between painted frames
+  public static final int PRESENT = 5;		// showing an actively rendered frame on the screen
+  public static final String[] PHASE_NAMES = { "move", "draw", "paint", "hit-test", "frame", "present" };
+  public static final String OBJECT_NAME = "JavaAnimation:type=PerfMetrics";	// the JMX name
+  public static final long INTERVAL_NANOS = 1000000000L;	// the length of a reported interval
+  private Histogram[] live = new Histogram[PHASE_NAMES.length];	// the counts being recorded
+  private Histogram.Snapshot[] reported = new Histogram.Snapshot[PHASE_NAMES.length];	// the last interval's counts
+  private volatile int shapeCount = 0;		// the number of shapes in the last frame
+  private long rolled;						// when the reported interval ended
+  private long allocated = -1;				// the bytes all threads had allocated then
+  private double fps = 0, allocationRate = 0;	// the rates over the reported interval
+  private static HashMap<Long, Long> lastSeen = new HashMap<Long, Long>();	// the bytes each live thread had allocated at the last count
+  private static long ended = 0;				// the bytes allocated by the threads which have ended since
+  private static com.sun.management.ThreadMXBean threads =
+    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  /**
+   * Constructor
+   */
+  public PerfMetrics() {
+    for (int k = 0; k < live.length; k++) {
+      live[k] = new Histogram();
+      reported[k] = new Histogram.Snapshot();
+    }
+    rolled = System.nanoTime();
+  }
+
+  /**
+   * Record how long a phase took, from any thread
+   * @param phase 	the phase, MOVE to FRAME
+   * @param nanos 	the time taken in ns
+   */
+  public void record(int phase, long nanos) {
+    live[phase].record(nanos);
+  }
+
+  /**
+   * Set the number of shapes in the frame
+   * @param n 	the shape count
+   */
+  public void setShapeCount(int n) {
+    shapeCount = n;
+  }
+
+  /**
+   * Return a phase's timings over the last whole interval
+   * @param phase 	the phase, MOVE to FRAME
+   * @return the histogram of the interval
+   */
+  public synchronized Histogram.Snapshot getSnapshot(int phase) {
+    roll();
+    return reported[phase];
+  }
+
+  /**
+   * Return the frames painted per second over the last whole interval
+   * @return the frame rate
+   */
+  public synchronized double getFps() {
+    roll();
+    return fps;
+  }
+
+  /**
+   * Return the bytes allocated per second by every thread over the last whole interval
+   * @return the allocation rate in MB/s
+   */
+  public synchronized double getAllocationRate() {
+    roll();
+    return allocationRate;
+  }
+
+  /**
+   * Return the number of shapes in the last frame
+   * @return the shape count
+   */
+  public int getShapeCount() { return shapeCount; }
+
+  public double getMoveP50Micros() { return micros(MOVE, 0.50); }
+  public double getMoveP99Micros() { return micros(MOVE, 0.99); }
+  public double getMoveMaxMicros() { return micros(MOVE, 1.0); }
+  public double getDrawP50Micros() { return micros(DRAW, 0.50); }
+  public double getDrawP99Micros() { return micros(DRAW, 0.99); }
+  public double getDrawMaxMicros() { return micros(DRAW, 1.0); }
+  public double getPaintP50Micros() { return micros(PAINT, 0.50); }
+  public double getPaintP99Micros() { return micros(PAINT, 0.99); }
+  public double getPaintMaxMicros() { return micros(PAINT, 1.0); }
+  public double getHitTestP50Micros() { return micros(HIT_TEST, 0.50); }
+  public double getHitTestP99Micros() { return micros(HIT_TEST, 0.99); }
+  public double getHitTestMaxMicros() { return micros(HIT_TEST, 1.0); }
+  public double getFrameP50Micros() { return micros(FRAME, 0.50); }
+  public double getFrameP99Micros() { return micros(FRAME, 0.99); }
+  public double getFrameMaxMicros() { return micros(FRAME, 1.0); }
+  public double getPresentP50Micros() { return micros(PRESENT, 0.50); }
+  public double getPresentP99Micros() { return micros(PRESENT, 0.99); }
+  public double getPresentMaxMicros() { return micros(PRESENT, 1.0); }
+
+  /**
+   * Register the metrics with the platform MBean server under OBJECT_NAME,
+   * replacing any metrics registered before
+   * @return true if and only if they were registered
+   */
+  public boolean register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name))
+        server.unregisterMBean(name);
+      server.registerMBean(this, name);
+      return true;
+    } catch (JMException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Return a percentile of a phase in microseconds
+   */
+  private synchronized double micros(int phase, double p) {
+    return getSnapshot(phase).getPercentile(p) / 1000.0;
+  }
+
+  /**
+   * Start a new interval if the last one is over, moving the live counts into
+   * the reported ones. Writers keep recording while this runs; a count lands
+   * in one interval or the other.
+   */
+  private void roll() {
+    long now = System.nanoTime();
+    long elapsed = now - rolled;
+    if (elapsed < INTERVAL_NANOS)
+      return;
+    for (int k = 0; k < live.length; k++)
+      live[k].drainTo(reported[k]);
+    fps = reported[FRAME].getCount() * 1e9 / elapsed;
+    long bytes = totalAllocated();
+    allocationRate = allocated < 0 ? 0 : (bytes - allocated) / (elapsed / 1e9) / (1024 * 1024);
+    allocated = bytes;
+    rolled = now;
+  }
+
+  /**
+   * Return the bytes allocated so far by every thread. A thread which has ended
+   * still counts with what it had allocated when it was last seen, so the total
+   * never goes down when short-lived threads such as the scene saver finish.
+   */
+  static synchronized long totalAllocated() {
+    long[] ids = threads.getAllThreadIds();
+    long[] bytes = threads.getThreadAllocatedBytes(ids);
+    HashMap<Long, Long> seen = new HashMap<Long, Long>(ids.length * 2);
+    long total = 0;
+    for (int k = 0; k < ids.length; k++)
+      if (bytes[k] > 0) {
+        total += bytes[k];
+        seen.put(ids[k], bytes[k]);
+      }
+    for (Map.Entry<Long, Long> e : lastSeen.entrySet())
+      if (!seen.containsKey(e.getKey()))
+        ended += e.getValue();
+    lastSeen = seen;
+    return ended + total;
+  }
+
+  // Inner class ===================================================================== Inner class start
+
+  /*
+   *  ===============================================================================
+   *  Histogram : Counts of values in log-linear buckets, each within an eighth
+   *  of its value, recorded without locks.
+   *  ===============================================================================
+   */
+  public static class Histogram {
+    static final int SUB_BITS = 3;					// 2^SUB_BITS buckets per power of two
+    static final int SUB = 1 << SUB_BITS;
+    static final int BUCKETS = 64 << SUB_BITS;
+    private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private AtomicLong max = new AtomicLong();
+
+    /**
+     * Count a value
+     * @param v 	the value, negative values count as 0
+     */
+    public void record(long v) {
+      v = Math.max(0, v);
+      counts.incrementAndGet(bucket(v));
+      long m;
+      while (v > (m = max.get()) && !max.compareAndSet(m, v))
+        ;
+    }
+
+    /**
+     * Move the counts into a snapshot and start again from zero
+     * @param s 	the snapshot to overwrite
+     */
+    void drainTo(Snapshot s) {
+      s.count = 0;
+      for (int b = 0; b < BUCKETS; b++) {
+        s.counts[b] = counts.getAndSet(b, 0);
+        s.count += s.counts[b];
+      }
+      s.max = max.getAndSet(0);
+    }
+
+    /**
+     * Return the bucket holding a value
+     */
+    static int bucket(long v) {
+      if (v < SUB)
+        return (int) v;
+      int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+      return ((shift + 1) << SUB_BITS) + (int) ((v >>> shift) & (SUB - 1));
+    }
+
+    /**
+     * Return the smallest value in a bucket
+     */
+    static long lowest(int b) {
+      int shift = (b >> SUB_BITS) - 1;
+      return shift <= 0 ? b : (long) (SUB + (b & (SUB - 1))) << shift;
+    }
+
+    /*
+     *  ===============================================================================
+     *  Snapshot : The counts of a histogram over one interval.
+     *  ===============================================================================
+     */
+    public static class Snapshot {
+      private long[] counts = new long[BUCKETS];
+      private long count, max;
+
+      /**
+       * Return the number of values counted
+       * @return the count
+       */
+      public long getCount() {
+        return count;
+      }
+
+      /**
+       * Return the largest value counted
+       * @return the maximum, exactly
+       */
+      public long getMax() {
+        return max;
+      }
+
+      /**
+       * Return the value below which a fraction of the values fall
+       * @param p 	the fraction, from 0 to 1; 1 gives the maximum
+       * @return the highest value in the percentile's bucket, or 0 if nothing was counted
+       */
+      public long getPercentile(double p) {
+        if (count == 0)
+          return 0;
+        if (p >= 1)
+          return max;
+        long rank = Math.max(1, (long) Math.ceil(p * count)), seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+          seen += counts[b];
+          if (seen >= rank)
+            return Math.min(max, lowest(b + 1) - 1);
+        }
+        return max;
+      }
+    }
+  }
+
+ // ======================================================================================== Inner class End
+}
@@ -0,0 +1,32 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  PerfMetricsMBean.java : The management interface of PerfMetrics, read by
+ *  JMX clients such as jconsole. Times are over the last whole second.
+ *  ===============================================================================
+ */
+
+public interface PerfMetricsMBean {
+  int getShapeCount();
+  double getFps();
+  double getAllocationRate();
+  double getMoveP50Micros();
+  double getMoveP99Micros();
+  double getMoveMaxMicros();
+  double getDrawP50Micros();
+  double getDrawP99Micros();
+  double getDrawMaxMicros();
+  double getPaintP50Micros();
+  double getPaintP99Micros();
+  double getPaintMaxMicros();
+  double getHitTestP50Micros();
+  double getHitTestP99Micros();
+  double getHitTestMaxMicros();
+  double getFrameP50Micros();
+  double getFrameP99Micros();
+  double getFrameMaxMicros();
+  double getPresentP50Micros();
+  double getPresentP99Micros();
+  double getPresentMaxMicros();
+}
@@ -0,0 +1,225 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  SceneIO.java : Saves and loads scenes in a compact binary format.
+ *  A scene file is a header followed by one fixed size record per shape:
+ *
+ *    header  int magic 'JANI', short version, int margin width, int margin height, int shape count
+ *    record  byte type, byte path, byte direction / 90, byte pacman mouth, byte flags (1 = selected),
+ *            int x, int y, char width, char height, int fill ARGB, int border ARGB,
+ *            short delta x, short delta y, double amplitude, int swing steps
+ *
+ *  which is RECORD_BYTES (41) bytes a shape, big-endian. Files are read and
+ *  written through NIO channels in large buffers, and loading hands the shapes
+ *  over in chunks as they are read, so a big scene can be shown and animated
+ *  while the rest of it is still loading.
+ *  ===============================================================================
+ */
+
+import java.awt.Color;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+public class SceneIO {
+  public static final int MAGIC = 0x4A414E49;		// "JANI"
+  public static final short VERSION = 1;			// the version written
+  public static final int HEADER_BYTES = 18;		// the size of the header
+  public static final int RECORD_BYTES = 41;		// the size of one shape
+  public static final int CHUNK = 4096;				// the shapes handed over at a time when loading
+  private static final int BUFFER_BYTES = 64 * 1024;	// the size of the I/O buffer
+
+  /**
+   * Save the rows of a store to a file
+   * @param store 	the shapes, with their path state
+   * @param file 	the file to write, replaced if it exists
+   */
+  public static void save(ShapeStore store, File file) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+      StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      save(store, channel);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Write the rows of a store to a channel
+   * @param store 	the shapes, with their path state
+   * @param channel 	the channel to write to, left open
+   */
+  public static void save(ShapeStore store, WritableByteChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    buffer.putInt(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.putInt(store.getMarginWidth());
+    buffer.putInt(store.getMarginHeight());
+    buffer.putInt(store.size());
+    for (int i = 0; i < store.size(); i++) {
+      if (store.width[i] < 0 || store.width[i] > Character.MAX_VALUE || store.height[i] < 0 || store.height[i] > Character.MAX_VALUE)
+        throw new IOException("Shape " + i + " is too big to save: " + store.width[i] + " x " + store.height[i]);
+      if (store.deltaX[i] != (short) store.deltaX[i] || store.deltaY[i] != (short) store.deltaY[i])
+        throw new IOException("Shape " + i + " moves too fast to save: " + store.deltaX[i] + ", " + store.deltaY[i]);
+      if (buffer.remaining() < RECORD_BYTES)
+        drain(buffer, channel);
+      buffer.put(store.type[i]);
+      buffer.put(store.pathType[i]);
+      buffer.put(store.direction[i]);
+      buffer.put(store.mouth[i]);
+      buffer.put((byte) (store.selected[i] ? 1 : 0));
+      buffer.putInt(store.x[i]);
+      buffer.putInt(store.y[i]);
+      buffer.putChar((char) store.width[i]);
+      buffer.putChar((char) store.height[i]);
+      buffer.putInt(store.fill[i]);
+      buffer.putInt(store.border[i]);
+      buffer.putShort((short) store.deltaX[i]);
+      buffer.putShort((short) store.deltaY[i]);
+      buffer.putDouble(store.amplitude[i]);
+      buffer.putInt(store.step[i]);
+    }
+    drain(buffer, channel);
+  }
+
+  /**
+   * Load the shapes of a file, handing them over a chunk at a time
+   * @param file 	the file to read
+   * @param mw 	the margin width to give the shapes, or 0 for the one saved
+   * @param mh 	the margin height to give the shapes, or 0 for the one saved
+   * @param listener 	is given each chunk of shapes as it is read
+   * @return the number of shapes loaded
+   */
+  public static int load(File file, int mw, int mh, ChunkListener listener) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      return load(channel, mw, mh, listener);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Read the shapes of a scene from a channel, handing them over a chunk at a time
+   * @param channel 	the channel to read from, left open
+   * @param mw 	the margin width to give the shapes, or 0 for the one saved
+   * @param mh 	the margin height to give the shapes, or 0 for the one saved
+   * @param listener 	is given each chunk of shapes as it is read
+   * @return the number of shapes loaded
+   */
+  public static int load(ReadableByteChannel channel, int mw, int mh, ChunkListener listener) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    buffer.limit(0);	// nothing read yet
+    fill(buffer, channel, HEADER_BYTES);
+    if (buffer.getInt() != MAGIC)
+      throw new IOException("Not a scene file");
+    short version = buffer.getShort();
+    if (version < 1 || version > VERSION)
+      throw new IOException("Unsupported scene version " + version);
+    int savedWidth = buffer.getInt(), savedHeight = buffer.getInt();
+    int count = buffer.getInt();
+    if (count < 0)
+      throw new IOException("Bad shape count " + count);
+    if (channel instanceof SeekableByteChannel) {	// a file must hold exactly the shapes it counts
+      SeekableByteChannel file = (SeekableByteChannel) channel;
+      long start = file.position() - buffer.limit();	// where the header was read from
+      if (file.size() - start != HEADER_BYTES + (long) count * RECORD_BYTES)
+        throw new IOException("Scene file of " + (file.size() - start) + " bytes does not hold " + count + " shapes");
+    }
+    if (mw <= 0 || mh <= 0) {
+      mw = savedWidth;
+      mh = savedHeight;
+    }
+    ArrayList<MovingShape> chunk = new ArrayList<MovingShape>(Math.min(count, CHUNK));
+    for (int i = 0; i < count; i++) {
+      fill(buffer, channel, RECORD_BYTES);
+      chunk.add(read(buffer, mw, mh));
+      if (chunk.size() == CHUNK) {
+        listener.loaded(chunk);
+        chunk = new ArrayList<MovingShape>(CHUNK);
+      }
+    }
+    if (!chunk.isEmpty())
+      listener.loaded(chunk);
+    return count;
+  }
+
+  /**
+   * Make a shape from the record at the buffer's position
+   */
+  private static MovingShape read(ByteBuffer buffer, int mw, int mh) throws IOException {
+    int type = buffer.get(), path = buffer.get(), direction = buffer.get() * 90, mouth = buffer.get();
+    boolean selected = (buffer.get() & 1) != 0;
+    int x = buffer.getInt(), y = buffer.getInt(), w = buffer.getChar(), h = buffer.getChar();
+    Color fill = new Color(buffer.getInt(), true), border = new Color(buffer.getInt(), true);
+    int dx = buffer.getShort(), dy = buffer.getShort();
+    double amplitude = buffer.getDouble();
+    int steps = buffer.getInt();
+    if (type < MovingShape.CIRCLE || type > MovingShape.BOWTIE)
+      throw new IOException("Bad shape type " + type);
+    // a path the shape could not move on would stop the simulation
+    if (!MovingShape.isPath(path))
+      throw new IOException("Unknown path " + path);
+    if (steps < 0)
+      throw new IOException("Bad path step " + steps);
+    if (path == MovingShape.MovingPath.BOUNDARY && (direction < 0 || direction > 270))
+      throw new IOException("Bad direction " + direction);
+    if (path >= MovingShape.MovingPath.SPLINE && dx != 1 && dx != -1)
+      throw new IOException("Bad spline direction " + dx);
+    if (!Double.isFinite(amplitude))
+      throw new IOException("Bad amplitude " + amplitude);
+    // the mouth is packed as start angle * 2 + opening, the start going from 0 to 50 in fives
+    if (mouth < 0 || (mouth >> 1) > 50 || (mouth >> 1) % 5 != 0)
+      throw new IOException("Bad mouth " + mouth);
+    MovingShape s = MovingShape.create(type, x, y, w, h, mw, mh, fill, border, path);
+    if (s.getPath() != null)
+      s.getPath().setState(dx, dy, amplitude, steps, direction);
+    if (s instanceof MovingPacMan)
+      ((MovingPacMan) s).setMouth(mouth);
+    s.setSelected(selected);
+    return s;
+  }
+
+  /**
+   * Write out everything in the buffer and empty it
+   */
+  private static void drain(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+    buffer.clear();
+  }
+
+  /**
+   * Read until the buffer holds at least the given number of bytes
+   */
+  private static void fill(ByteBuffer buffer, ReadableByteChannel channel, int bytes) throws IOException {
+    if (buffer.remaining() >= bytes)
+      return;
+    buffer.compact();
+    while (buffer.position() < bytes)
+      if (channel.read(buffer) < 0)
+        throw new EOFException("Scene file ends early");
+    buffer.flip();
+  }
+
+  // Inner class ===================================================================== Inner class start
+
+  /*
+   *  ===============================================================================
+   *  ChunkListener : Is given the shapes of a scene as they are loaded.
+   *  ===============================================================================
+   */
+  public interface ChunkListener {
+    /**
+     * Take a chunk of loaded shapes
+     * @param shapes 	the shapes, which the listener may keep
+     */
+    void loaded(java.util.List<MovingShape> shapes);
+  }
+
+ // ======================================================================================== Inner class End
+}
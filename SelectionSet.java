@@ -0,0 +1,88 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  SelectionSet.java : The shapes which are selected, kept up to date by the
+ *  shapes themselves. A shape given the set adds itself when it is selected
+ *  and removes itself when it is deselected, so changing the selected shapes
+ *  only looks at those shapes, however many others there are.
+ *  The shapes are kept in a list in the order they were selected, except that
+ *  removing one moves the last shape into its place, and each shape's place
+ *  in the list is found through an identity map.
+ *  ===============================================================================
+ */
+
+import java.util.*;
+
+public class SelectionSet {
+  private ArrayList<MovingShape> shapes;				// the selected shapes
+  private IdentityHashMap<MovingShape, Integer> places;	// where each selected shape is in the list
+
+  /**
+   * Constructor to create an empty set
+   */
+  public SelectionSet() {
+    shapes = new ArrayList<MovingShape>();
+    places = new IdentityHashMap<MovingShape, Integer>();
+  }
+
+  /**
+   * Return the number of selected shapes
+   * @return the shape count
+   */
+  public int size() {
+    return shapes.size();
+  }
+
+  /**
+   * Return a selected shape
+   * @param i 	the place of the shape, from 0 to size() - 1
+   * @return the shape
+   */
+  public MovingShape get(int i) {
+    return shapes.get(i);
+  }
+
+  /**
+   * Return whether a shape is in the set
+   * @param s 	the shape
+   * @return true if and only if it is selected
+   */
+  public boolean contains(MovingShape s) {
+    return places.containsKey(s);
+  }
+
+  /**
+   * Add a shape to the set, if it is not already there
+   * @param s 	the shape to add
+   */
+  public void add(MovingShape s) {
+    if (places.containsKey(s))
+      return;
+    places.put(s, shapes.size());
+    shapes.add(s);
+  }
+
+  /**
+   * Remove a shape from the set, moving the last shape into its place
+   * @param s 	the shape to remove
+   */
+  public void remove(MovingShape s) {
+    Integer place = places.remove(s);
+    if (place == null)
+      return;
+    MovingShape last = shapes.remove(shapes.size() - 1);
+    if (last != s) {
+      shapes.set(place, last);
+      places.put(last, place);
+    }
+  }
+
+  /**
+   * Empty the set. The shapes keep their selected property.
+   */
+  public void clear() {
+    shapes.clear();
+    places.clear();
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  ShapeEdit.java : A batch of property changes to make to shapes together:
+ *  any of a new path, width, height, fill colour and border colour. Only the
+ *  properties which have been set are changed. An edit can be turned into
+ *  numbers and back, so it can be recorded as one input and replayed.
+ *  ===============================================================================
+ */
+
+import java.awt.Color;
+
+public class ShapeEdit {
+  public static final int ARGUMENTS = 6;		// the length of getArguments()
+  private static final int PATH = 1, WIDTH = 2, HEIGHT = 4, FILL = 8, BORDER = 16;	// the bits of the properties set
+  private int changes = 0;						// which properties are set
+  private int path, width, height;				// the new path, width and height
+  private Color fill, border;					// the new fill and border colours
+
+  /**
+   * Constructor to create an edit which changes nothing
+   */
+  public ShapeEdit() { }
+
+  /**
+   * Constructor to create an edit from the numbers given by getArguments()
+   * @param args 	the numbers
+   * @param offset 	where in args they start
+   * @throws IllegalArgumentException if they change the path to an unknown one
+   */
+  public ShapeEdit(int[] args, int offset) {
+    check(args, offset);
+    changes = args[offset];
+    path = args[offset + 1];
+    width = args[offset + 2];
+    height = args[offset + 3];
+    fill = new Color(args[offset + 4], true);
+    border = new Color(args[offset + 5], true);
+  }
+
+  /**
+   * Change the path of the shapes
+   * @param t 	the new path type
+   * @throws IllegalArgumentException if t is not a path MovingShape.setPath takes
+   */
+  public void setPath(int t) {
+    if (!MovingShape.isPath(t))
+      throw new IllegalArgumentException("Unknown path " + t);
+    path = t;
+    changes |= PATH;
+  }
+
+  /**
+   * Change the width of the shapes
+   * @param w 	the new width
+   */
+  public void setWidth(int w) {
+    width = w;
+    changes |= WIDTH;
+  }
+
+  /**
+   * Change the height of the shapes
+   * @param h 	the new height
+   */
+  public void setHeight(int h) {
+    height = h;
+    changes |= HEIGHT;
+  }
+
+  /**
+   * Change the fill colour of the shapes
+   * @param f 	the new colour
+   */
+  public void setFill(Color f) {
+    fill = f;
+    changes |= FILL;
+  }
+
+  /**
+   * Change the border colour of the shapes
+   * @param b 	the new colour
+   */
+  public void setBorder(Color b) {
+    border = b;
+    changes |= BORDER;
+  }
+
+  /**
+   * Return whether the edit changes the size of the shapes, which moves them in a spatial index
+   * @return true if and only if the width or height is set
+   */
+  public boolean changesSize() {
+    return (changes & (WIDTH | HEIGHT)) != 0;
+  }
+
+  /**
+   * Return the edit as numbers, to be recorded or sent to another thread
+   * @return ARGUMENTS numbers, which the array constructor reads back
+   */
+  public int[] getArguments() {
+    return new int[] { changes, path, width, height,
+      fill == null ? 0 : fill.getRGB(), border == null ? 0 : border.getRGB() };
+  }
+
+  /**
+   * Check the numbers given by getArguments() make an edit which can be applied
+   * @param args 	the numbers
+   * @param offset 	where in args they start
+   * @throws IllegalArgumentException if they change the path to an unknown one
+   */
+  public static void check(int[] args, int offset) {
+    if ((args[offset] & PATH) != 0 && !MovingShape.isPath(args[offset + 1]))
+      throw new IllegalArgumentException("Unknown path " + args[offset + 1]);
+  }
+
+  /**
+   * Make the changes to a shape
+   * @param s 	the shape to change
+   */
+  public void applyTo(MovingShape s) {
+    if ((changes & PATH) != 0)
+      s.setPath(path);
+    if ((changes & WIDTH) != 0)
+      s.setWidth(width);
+    if ((changes & HEIGHT) != 0)
+      s.setHeight(height);
+    if ((changes & FILL) != 0)
+      s.setFillColor(fill);
+    if ((changes & BORDER) != 0)
+      s.setBorderColor(border);
+  }
+}
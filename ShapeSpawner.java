@@ -0,0 +1,179 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  ShapeSpawner.java : Makes shapes in bulk from distributions of type, path,
+ *  size and colour, at uniformly random positions inside the margins. The
+ *  types and paths are picked by weight, the sizes uniformly from a range, and
+ *  the fill is either one colour or a random opaque one. Each shape's paths get
+ *  a generator split from the one spawning it, so the same seed always spawns
+ *  the same shapes moving the same way.
+ *  ===============================================================================
+ */
+
+import java.awt.Color;
+import java.util.*;
+
+public class ShapeSpawner {
+  public static final int ARGUMENTS = 15;		// the length of getArguments()
+  private int[] typeWeights = { 1, 1, 1, 1 };		// the chance of each shape type, CIRCLE to BOWTIE
+  private int[] pathWeights = { 1, 1, 1, 1, 1 };	// the chance of each path, BOUNDARY to FLYINGPATH
+  private int minWidth = 10, maxWidth = 40;		// the range of widths, inclusive
+  private int minHeight = 10, maxHeight = 40;	// the range of heights, inclusive
+  private Color fill = null;					// the fill colour, or null for random ones
+  private Color border = Color.black;			// the border colour
+
+  /**
+   * Constructor to create a spawner of every type and path, equally likely
+   */
+  public ShapeSpawner() { }
+
+  /**
+   * Constructor to create a spawner from the numbers given by getArguments()
+   * @param args 	the numbers
+   * @param offset 	where in args they start
+   */
+  public ShapeSpawner(int[] args, int offset) {
+    setTypeWeights(Arrays.copyOfRange(args, offset, offset + 4));
+    setPathWeights(Arrays.copyOfRange(args, offset + 4, offset + 9));
+    setSizeRange(args[offset + 9], args[offset + 10], args[offset + 11], args[offset + 12]);
+    setFill(args[offset + 13] == 0 ? null : new Color(args[offset + 13], true));
+    setBorder(new Color(args[offset + 14], true));
+  }
+
+  /**
+   * Set how likely each shape type is
+   * @param weights 	the weight of CIRCLE, RECTANGLE, PACMAN and BOWTIE, at least one above 0
+   */
+  public void setTypeWeights(int... weights) {
+    typeWeights = checkWeights(weights, 4);
+  }
+
+  /**
+   * Set how likely each path is
+   * @param weights 	the weight of BOUNDARY to FLYINGPATH, at least one above 0
+   */
+  public void setPathWeights(int... weights) {
+    pathWeights = checkWeights(weights, 5);
+  }
+
+  /**
+   * Set the range of sizes, which are picked uniformly
+   * @param minW 	the smallest width, at least 1
+   * @param maxW 	the largest width, at least minW
+   * @param minH 	the smallest height, at least 1
+   * @param maxH 	the largest height, at least minH
+   */
+  public void setSizeRange(int minW, int maxW, int minH, int maxH) {
+    if (minW < 1 || maxW < minW || minH < 1 || maxH < minH)
+      throw new IllegalArgumentException("Bad size range " + minW + "-" + maxW + " x " + minH + "-" + maxH);
+    minWidth = minW;
+    maxWidth = maxW;
+    minHeight = minH;
+    maxHeight = maxH;
+  }
+
+  /**
+   * Set the fill colour of the shapes
+   * @param f 	the colour, or null for a random opaque colour each
+   */
+  public void setFill(Color f) {
+    fill = f == null || f.getRGB() == 0 ? null : f;		// a clear black fill stands for random ones
+  }
+
+  /**
+   * Set the border colour of the shapes
+   * @param b 	the colour
+   */
+  public void setBorder(Color b) {
+    border = b;
+  }
+
+  /**
+   * Return the settings as numbers, to be recorded or sent to another thread
+   * @return ARGUMENTS numbers, which the array constructor reads back
+   */
+  public int[] getArguments() {
+    int[] args = new int[ARGUMENTS];
+    System.arraycopy(typeWeights, 0, args, 0, 4);
+    System.arraycopy(pathWeights, 0, args, 4, 5);
+    args[9] = minWidth;
+    args[10] = maxWidth;
+    args[11] = minHeight;
+    args[12] = maxHeight;
+    args[13] = fill == null ? 0 : fill.getRGB();
+    args[14] = border.getRGB();
+    return args;
+  }
+
+  /**
+   * Make one shape
+   * @param mw 	the margin width of the panel
+   * @param mh 	the margin height of the panel
+   * @param random 	the source of the shape's values, from which its own generator is split
+   * @return the new shape
+   */
+  public MovingShape make(int mw, int mh, SplittableRandom random) {
+    int type = pick(typeWeights, random), path = pick(pathWeights, random);
+    int w = random.nextInt(minWidth, maxWidth + 1), h = random.nextInt(minHeight, maxHeight + 1);
+    int x = random.nextInt(Math.max(1, mw - w + 1)), y = random.nextInt(Math.max(1, mh - h + 1));
+    Color f = fill != null ? fill : new Color(random.nextInt(0x1000000));
+    return MovingShape.create(type, x, y, w, h, mw, mh, f, border, path, random.split());
+  }
+
+  /**
+   * Make shapes and add them to a list. Callers with a growable list should make
+   * room for them first, so the list is only resized once.
+   * @param n 	the number of shapes
+   * @param mw 	the margin width of the panel
+   * @param mh 	the margin height of the panel
+   * @param random 	the source of the shapes' values
+   * @param out 	the list to add the shapes to
+   */
+  public void spawn(int n, int mw, int mh, SplittableRandom random, List<MovingShape> out) {
+    for (int i = 0; i < n; i++)
+      out.add(make(mw, mh, random));
+  }
+
+  /**
+   * Add rows to a store, resizing it once
+   * @param n 	the number of shapes
+   * @param store 	the store to add to, whose margins the shapes get
+   * @param random 	the source of the shapes' values
+   */
+  public void spawn(int n, ShapeStore store, SplittableRandom random) {
+    store.ensureCapacity(store.size() + n);
+    for (int i = 0; i < n; i++)
+      store.add(make(store.getMarginWidth(), store.getMarginHeight(), random));
+  }
+
+  /**
+   * Pick an index with a chance in proportion to its weight
+   */
+  private static int pick(int[] weights, SplittableRandom random) {
+    int total = 0;
+    for (int w : weights)
+      total += w;
+    int r = random.nextInt(total);
+    for (int k = 0; ; k++) {
+      r -= weights[k];
+      if (r < 0)
+        return k;
+    }
+  }
+
+  /**
+   * Return a copy of some weights, if there are the right number of them and they can be picked from
+   */
+  private static int[] checkWeights(int[] weights, int n) {
+    int total = 0;
+    for (int w : weights) {
+      if (w < 0)
+        throw new IllegalArgumentException("Negative weight " + w);
+      total += w;
+    }
+    if (weights.length != n || total <= 0)
+      throw new IllegalArgumentException("Need " + n + " weights, not all 0");
+    return weights.clone();
+  }
+}
@@ -0,0 +1,655 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  ShapeStore.java : A world of shapes kept in parallel primitive arrays.
+ *  Each shape is a row index into the arrays, so stepping a large world walks
+ *  memory in order instead of chasing a Point, two Colors and a path object
+ *  per shape. Rows are drawn through a Painter, and StoredShape adapts a row
+ *  to the MovingShape API.
+ *  ===============================================================================
+ */
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class ShapeStore {
+  private int size = 0;						// the number of shapes in the store
+  private int marginWidth, marginHeight;	// the margin of the animation panel area
+  byte[] type;								// the shape type, MovingShape.CIRCLE to BOWTIE
+  byte[] pathType;							// the path Id, MovingPath.BOUNDARY to FLYINGPATH or a SplineTrack
+  byte[] direction;							// the boundary path direction divided by 90
+  byte[] mouth;								// the packed pacman mouth state
+  boolean[] selected;						// the selected property
+  int[] x, y;								// the top left corner
+  int[] prevX, prevY;						// the top left corner before the last move
+  int[] width, height;						// the size of the shapes
+  int[] fill, border;						// the packed ARGB colours
+  int[] deltaX, deltaY;						// the moving distance of the path
+  int[] step;								// the number of swing steps the path has taken
+  double[] amplitude;						// the amplitude of the swing of the path
+  private Painter painter = null;			// the painter used by StoredShape
+  private Painter[] painters = new Painter[0];	// the painters after the first, for drawing from several threads
+  private SplittableRandom random = new SplittableRandom();	// the source of new paths' random values
+  private PathKernel kernel = PathKernel.SCALAR;	// steps the rows
+
+  /**
+   * Constructor to create an empty store
+   * @param capacity 	the number of shapes to make room for
+   * @param mw 		the margin width of the animation panel
+   * @param mh		the margin height of the animation panel
+   */
+  public ShapeStore(int capacity, int mw, int mh) {
+    marginWidth = mw;
+    marginHeight = mh;
+    allocate(Math.max(capacity, 16));
+  }
+
+  /**
+   * Return the number of shapes in the store
+   * @return the shape count
+   */
+  public int size() { return size; }
+
+  /**
+   * Remove all shapes. Row indices handed out before are no longer valid.
+   */
+  public void clear() { size = 0; }
+
+  /**
+   * Make sure the store can hold the given number of shapes without growing again
+   * @param capacity 	the number of shapes to make room for
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity > x.length)
+      allocate(Math.max(capacity, x.length + (x.length >> 1)));
+  }
+
+  /**
+   * Reset the margin for all shapes
+   * @param w 	the margin width
+   * @param h 	the margin height
+   */
+  public void setMarginSize(int w, int h) {
+    marginWidth = w;
+    marginHeight = h;
+  }
+
+  /**
+   * Set the generator new paths take their random values from, so that a store
+   * filled in the same order from the same seed behaves the same every time
+   * @param r 	the generator, owned by the store from now on
+   */
+  public void setRandom(SplittableRandom r) {
+    random = r;
+  }
+
+  /**
+   * Set the kernel which steps the rows, such as PathKernel.load()
+   * @param k 	the kernel
+   */
+  public void setKernel(PathKernel k) {
+    kernel = k;
+  }
+
+  /**
+   * Return the kernel which steps the rows
+   * @return the kernel
+   */
+  public PathKernel getKernel() { return kernel; }
+
+  /**
+   * Return the margin width shared by all shapes
+   * @return the margin width
+   */
+  public int getMarginWidth() { return marginWidth; }
+
+  /**
+   * Return the margin height shared by all shapes
+   * @return the margin height
+   */
+  public int getMarginHeight() { return marginHeight; }
+
+  /**
+   * Add a new shape with a freshly chosen path
+   * @param t 		the type of the shape, MovingShape.CIRCLE to BOWTIE
+   * @param px 		the x-coordinate of the new shape
+   * @param py		the y-coordinate of the new shape
+   * @param w 		the width of the new shape
+   * @param h		the height of the new shape
+   * @param f		the colour to set the middle of the shape
+   * @param b		the colour to set the border of the shape
+   * @param pathID 	the path of the new shape
+   * @return the row index of the new shape
+   */
+  public int add(int t, int px, int py, int w, int h, Color f, Color b, int pathID) {
+    int i = addRow(t, px, py, w, h, f.getRGB(), b.getRGB());
+    setPath(i, pathID);
+    return i;
+  }
+
+  /**
+   * Add a copy of an existing shape, including the state of its path
+   * @param s 	the shape to copy
+   * @return the row index of the new shape
+   */
+  public int add(MovingShape s) {
+    int i = addRow(s.getShapeType(), s.p.x, s.p.y, s.width, s.height, s.fill.getRGB(), s.border.getRGB());
+    prevX[i] = s.prevX;
+    prevY[i] = s.prevY;
+    selected[i] = s.selected;
+    if (s instanceof MovingPacMan)
+      mouth[i] = (byte) ((MovingPacMan) s).getMouth();
+    MovingShape.MovingPath path = s.getPath();
+    if (path != null) {
+      pathType[i] = (byte) path.getType();
+      direction[i] = (byte) (path.getDirection() / 90);
+      deltaX[i] = path.getDeltaX();
+      deltaY[i] = path.getDeltaY();
+      amplitude[i] = path.getAmplitude();
+      step[i] = path.getStep();
+    }
+    return i;
+  }
+
+  /**
+   * Replace the contents of the store with what is needed to draw a list of shapes:
+   * their type, position, size, colours, selection and mouth. Path state is not copied.
+   * Shapes in one list share their margins, so the first shape's are used.
+   * @param list 	the shapes to copy
+   */
+  public void copyFrom(java.util.List<MovingShape> list) {
+    int n = list.size();
+    ensureCapacity(n);
+    if (n > 0)
+      setMarginSize(list.get(0).marginWidth, list.get(0).marginHeight);
+    for (int i = 0; i < n; i++) {
+      MovingShape s = list.get(i);
+      type[i] = (byte) s.getShapeType();
+      x[i] = s.p.x;
+      y[i] = s.p.y;
+      prevX[i] = s.prevX;
+      prevY[i] = s.prevY;
+      width[i] = s.width;
+      height[i] = s.height;
+      fill[i] = s.fill.getRGB();
+      border[i] = s.border.getRGB();
+      selected[i] = s.selected;
+      if (type[i] == MovingShape.PACMAN)
+        mouth[i] = (byte) ((MovingPacMan) s).getMouth();
+    }
+    size = n;
+  }
+
+  /**
+   * Return an adapter which shows a row through the MovingShape API
+   * @param i 	the row index
+   * @return the adapter
+   */
+  public MovingShape get(int i) {
+    return new StoredShape(this, i);
+  }
+
+  /**
+   * Return the type of a shape
+   * @param i 	the row index
+   * @return the shape type
+   */
+  public int getType(int i) { return type[i]; }
+
+  /**
+   * Return the path Id of a shape
+   * @param i 	the row index
+   * @return the path Id
+   */
+  public int getPathType(int i) { return pathType[i]; }
+
+  /**
+   * Return the x-coordinate of a shape
+   * @param i 	the row index
+   * @return the x coordinate
+   */
+  public int getX(int i) { return x[i]; }
+
+  /**
+   * Return the y-coordinate of a shape
+   * @param i 	the row index
+   * @return the y coordinate
+   */
+  public int getY(int i) { return y[i]; }
+
+  /**
+   * Return the width of a shape
+   * @param i 	the row index
+   * @return the width
+   */
+  public int getWidth(int i) { return width[i]; }
+
+  /**
+   * Return the height of a shape
+   * @param i 	the row index
+   * @return the height
+   */
+  public int getHeight(int i) { return height[i]; }
+
+  /**
+   * Return whether a shape may be drawn inside a rectangle anywhere on its
+   * last step, counting its border and handles. It covers both ends of the
+   * step, so it holds whatever the interpolation.
+   * @param i 	the row index
+   * @param r 	the rectangle, such as the clip bounds
+   * @return false if and only if drawing the shape cannot touch the rectangle
+   */
+  public boolean intersects(int i, Rectangle r) {
+    int left = Math.min(x[i], prevX[i]) - 2, top = Math.min(y[i], prevY[i]) - 2;
+    int right = Math.max(x[i], prevX[i]) + width[i] + 3, bottom = Math.max(y[i], prevY[i]) + height[i] + 3;
+    return left < r.x + r.width && r.x < right && top < r.y + r.height && r.y < bottom;
+  }
+
+  /**
+   * Return the fill colour of a shape
+   * @param i 	the row index
+   * @return the packed ARGB fill colour
+   */
+  public int getFill(int i) { return fill[i]; }
+
+  /**
+   * Return the border colour of a shape
+   * @param i 	the row index
+   * @return the packed ARGB border colour
+   */
+  public int getBorder(int i) { return border[i]; }
+
+  /**
+   * Return the selected property of a shape
+   * @param i 	the row index
+   * @return the selected property
+   */
+  public boolean isSelected(int i) { return selected[i]; }
+
+  /**
+   * Set the selected property of a shape
+   * @param i 	the row index
+   * @param s 	the selected value
+   */
+  public void setSelected(int i, boolean s) { selected[i] = s; }
+
+  /**
+   * Set the width of a shape
+   * @param i 	the row index
+   * @param w 	the width value
+   */
+  public void setWidth(int i, int w) { width[i] = w; }
+
+  /**
+   * Set the height of a shape
+   * @param i 	the row index
+   * @param h 	the height value
+   */
+  public void setHeight(int i, int h) { height[i] = h; }
+
+  /**
+   * Set the fill colour of a shape
+   * @param i 	the row index
+   * @param f 	the new fill colour
+   */
+  public void setFill(int i, Color f) { fill[i] = f.getRGB(); }
+
+  /**
+   * Set the border colour of a shape
+   * @param i 	the row index
+   * @param b 	the new border colour
+   */
+  public void setBorder(int i, Color b) { border[i] = b.getRGB(); }
+
+  /**
+   * Set the path of a shape, choosing new random values as MovingShape.setPath does
+   * @param i 		the row index
+   * @param pathID 	the integer value of the path
+   * @throws IllegalArgumentException if pathID is not a path MovingShape.setPath takes
+   */
+  public void setPath(int i, int pathID) {
+    if (!MovingShape.isPath(pathID))
+      throw new IllegalArgumentException("Unknown path " + pathID);
+    pathType[i] = (byte) pathID;
+    direction[i] = 0;
+    deltaX[i] = 0;
+    deltaY[i] = 0;
+    amplitude[i] = 0;
+    step[i] = 0;
+    switch (pathID) {
+      case MovingShape.MovingPath.BOUNDARY : {
+        deltaX[i] = random.nextInt(10) + 1;
+        deltaY[i] = random.nextInt(10) + 1;
+        break;
+      }
+      case MovingShape.MovingPath.FALLING :
+      case MovingShape.MovingPath.FLYINGPATH : {
+        amplitude[i] = random.nextDouble() * 20;
+        deltaY[i] = 5;
+        break;
+      }
+      case MovingShape.MovingPath.FLOATINGSIDEWAYS : {
+        amplitude[i] = random.nextDouble() * 20;
+        deltaX[i] = 5;
+        break;
+      }
+      case MovingShape.MovingPath.FLOATINGSIDEWAYSOPP : {
+        amplitude[i] = random.nextDouble() * 20;
+        deltaX[i] = -5;
+        break;
+      }
+      default : {
+        SplineTrack track = SplineTrack.get(pathID);
+        if (track != null) {
+          deltaX[i] = 1;
+          step[i] = random.nextInt(track.length());
+        }
+        break;
+      }
+    }
+  }
+
+  /**
+   * Move every shape by one step
+   */
+  public void moveAll() {
+    moveRange(0, size);
+  }
+
+  /**
+   * Move the shapes in a range of rows by one step with the store's kernel.
+   * Each row gives the same result as the matching MovingPath.move.
+   * @param from 	the first row, inclusive
+   * @param to 	the last row, exclusive
+   */
+  public void moveRange(int from, int to) {
+    kernel.move(this, from, to);
+  }
+
+  /**
+   * Move the shapes in a range of rows by one step, one row at a time
+   * @param from 	the first row, inclusive
+   * @param to 	the last row, exclusive
+   */
+  void moveRows(int from, int to) {
+    int mw = marginWidth, mh = marginHeight;
+    for (int i = from; i < to; i++) {
+      prevX[i] = x[i];
+      prevY[i] = y[i];
+      switch (pathType[i]) {
+        case MovingShape.MovingPath.BOUNDARY :
+          moveBoundary(i, mw - width[i], mh - height[i]);
+          break;
+        case MovingShape.MovingPath.FALLING :
+          step[i]++;
+          x[i] = (int) Math.round(x[i] + amplitude[i] * TrajectoryTable.sin(step[i]));
+          y[i] += deltaY[i];
+          if (y[i] > mh)
+            y[i] = 0;
+          else if (y[i] < 0 - height[i])
+            y[i] = mh;
+          break;
+        case MovingShape.MovingPath.FLOATINGSIDEWAYS :
+          step[i]++;
+          y[i] = (int) Math.round(y[i] + amplitude[i] * TrajectoryTable.sin(step[i]));
+          x[i] += deltaX[i];
+          if (x[i] > mw)
+            x[i] = 0 - width[i];
+          else if (x[i] < 0 - width[i])
+            x[i] = mw;
+          break;
+        case MovingShape.MovingPath.FLOATINGSIDEWAYSOPP :
+          step[i]++;
+          y[i] = (int) Math.round(y[i] + amplitude[i] * TrajectoryTable.sin(step[i]));
+          x[i] += deltaX[i];
+          if (x[i] < 0 - width[i])
+            x[i] = mw;
+          else if (x[i] > mw)
+            x[i] = 0 - width[i];
+          break;
+        case MovingShape.MovingPath.FLYINGPATH :
+          step[i]++;
+          x[i] = (int) Math.round(x[i] + amplitude[i] * TrajectoryTable.sin(step[i]));
+          y[i] -= deltaY[i];
+          if (y[i] < 0 - height[i])
+            y[i] = mh;
+          else if (y[i] > mh)
+            y[i] = 0;
+          break;
+        default :
+          moveSpline(i);
+          break;
+      }
+      if (type[i] == MovingShape.PACMAN)
+        mouth[i] = (byte) MovingPacMan.nextMouth(mouth[i]);
+    }
+  }
+
+  /**
+   * Move a shape one step along its SplineTrack, as SplinePath.move does.
+   * A row whose path is not a registered track stays where it is.
+   * @param i 	the row index
+   */
+  void moveSpline(int i) {
+    SplineTrack track = SplineTrack.get(pathType[i]);
+    if (track == null)
+      return;
+    step[i] = track.next(step[i], deltaX[i]);
+    x[i] = track.getX(step[i], marginWidth - width[i]);
+    y[i] = track.getY(step[i], marginHeight - height[i]);
+  }
+
+  /**
+   * Move a shape one step around the boundary, as BoundaryPath.move does
+   * @param i 	the row index
+   * @param w 	the largest x-coordinate for the shape
+   * @param h 	the largest y-coordinate for the shape
+   */
+  private void moveBoundary(int i, int w, int h) {
+    switch (direction[i]) {
+      case 0 : {		// move downwards
+        y[i] += deltaY[i];
+        if (y[i] > h) {
+          y[i] = h - 1;
+          direction[i] = 1;
+        }
+        break;
+      }
+      case 1 : {		// move to the right
+        x[i] += deltaX[i];
+        if (x[i] > w) {
+          x[i] = w - 1;
+          direction[i] = 2;
+        }
+        break;
+      }
+      case 2 : {		// move upwards
+        y[i] -= deltaY[i];
+        if (y[i] < 0) {
+          direction[i] = 3;
+          y[i] = 0;
+        }
+        break;
+      }
+      case 3 : {		// move to the left
+        x[i] -= deltaX[i];
+        if (x[i] < 0) {
+          direction[i] = 0;
+          x[i] = 0;
+        }
+        break;
+      }
+    }
+  }
+
+  /**
+   * Return the painter shared by the StoredShape adapters of this store.
+   * It must only be used from one thread at a time.
+   * @return the shared painter
+   */
+  Painter getPainter() {
+    if (painter == null)
+      painter = new Painter();
+    return painter;
+  }
+
+  /**
+   * Return one of the store's painters, so several threads can draw it at once
+   * with one painter each. Painter 0 is the shared painter.
+   * @param k 	the painter number
+   * @return the painter, made the first time it is asked for
+   */
+  Painter getPainter(int k) {
+    if (k == 0)
+      return getPainter();
+    if (painters.length < k)
+      painters = Arrays.copyOf(painters, k);
+    if (painters[k - 1] == null)
+      painters[k - 1] = new Painter();
+    return painters[k - 1];
+  }
+
+  /**
+   * Append a row with no path
+   * @return the row index of the new shape
+   */
+  private int addRow(int t, int px, int py, int w, int h, int f, int b) {
+    ensureCapacity(size + 1);
+    int i = size++;
+    type[i] = (byte) t;
+    pathType[i] = -1;
+    direction[i] = 0;
+    mouth[i] = 45 * 2;
+    selected[i] = false;
+    x[i] = px;
+    y[i] = py;
+    prevX[i] = px;
+    prevY[i] = py;
+    width[i] = w;
+    height[i] = h;
+    fill[i] = f;
+    border[i] = b;
+    deltaX[i] = 0;
+    deltaY[i] = 0;
+    amplitude[i] = 0;
+    step[i] = 0;
+    return i;
+  }
+
+  /**
+   * Grow every array to the given capacity, keeping the current rows
+   */
+  private void allocate(int capacity) {
+    type = Arrays.copyOf(type == null ? new byte[0] : type, capacity);
+    pathType = Arrays.copyOf(pathType == null ? new byte[0] : pathType, capacity);
+    direction = Arrays.copyOf(direction == null ? new byte[0] : direction, capacity);
+    mouth = Arrays.copyOf(mouth == null ? new byte[0] : mouth, capacity);
+    selected = Arrays.copyOf(selected == null ? new boolean[0] : selected, capacity);
+    x = grow(x, capacity);
+    y = grow(y, capacity);
+    prevX = grow(prevX, capacity);
+    prevY = grow(prevY, capacity);
+    width = grow(width, capacity);
+    height = grow(height, capacity);
+    fill = grow(fill, capacity);
+    border = grow(border, capacity);
+    deltaX = grow(deltaX, capacity);
+    deltaY = grow(deltaY, capacity);
+    step = grow(step, capacity);
+    amplitude = Arrays.copyOf(amplitude == null ? new double[0] : amplitude, capacity);
+  }
+
+  /**
+   * Copy an int array into a new array of the given length
+   */
+  private static int[] grow(int[] a, int capacity) {
+    return Arrays.copyOf(a == null ? new int[0] : a, capacity);
+  }
+
+  // Inner class ===================================================================== Inner class start
+
+  /*
+   *  ===============================================================================
+   *  Painter : Draws and hit-tests rows of the store by loading them into one
+   *  reusable shape of each type. Use one painter per drawing thread.
+   *  ===============================================================================
+   */
+  public class Painter {
+    private MovingShape[] flyweights = { new MovingCircle(), new MovingRectangle(), new MovingPacMan(), new MovingBowTie() };
+    private Color[] fills = new Color[0], borders = new Color[0];	// the colours made for each row, kept while they match
+    private SpriteCache sprites = null;		// the sprites to draw from, if any
+
+    /**
+     * Set the sprite cache to draw from
+     * @param cache 	the sprite cache, or null to draw every shape itself
+     */
+    public void setSprites(SpriteCache cache) {
+      sprites = cache;
+    }
+
+    /**
+     * Load a row into the flyweight for its type
+     * @param i 	the row index
+     * @return the loaded flyweight
+     */
+    public MovingShape load(int i) {
+      int t = type[i];
+      MovingShape s = flyweights[t];
+      s.p.x = x[i];
+      s.p.y = y[i];
+      s.prevX = prevX[i];
+      s.prevY = prevY[i];
+      s.width = width[i];
+      s.height = height[i];
+      s.selected = selected[i];
+      s.marginWidth = marginWidth;
+      s.marginHeight = marginHeight;
+      if (fills.length <= i) {
+        fills = Arrays.copyOf(fills, x.length);
+        borders = Arrays.copyOf(borders, x.length);
+      }
+      Color f = fills[i], b = borders[i];
+      if (f == null || f.getRGB() != fill[i])
+        fills[i] = f = new Color(fill[i], true);
+      if (b == null || b.getRGB() != border[i])
+        borders[i] = b = new Color(border[i], true);
+      s.fill = f;
+      s.border = b;
+      if (t == MovingShape.PACMAN)
+        ((MovingPacMan) s).setMouth(mouth[i]);
+      return s;
+    }
+
+    /**
+     * Draw a row and its handles at its current position
+     * @param g 	the Graphics control
+     * @param i 	the row index
+     */
+    public void draw(Graphics g, int i) {
+      load(i).draw(g);
+    }
+
+    /**
+     * Draw a row part way between its previous and current position
+     * @param g 	the Graphics control
+     * @param i 	the row index
+     * @param alpha 	the fraction of the step between the two positions, from 0 to 1
+     */
+    public void drawInterpolated(Graphics g, int i, double alpha) {
+      load(i).drawInterpolated(g, alpha, sprites);
+    }
+
+    /**
+     * Returns whether the point is inside a row's shape or not.
+     * @param i 	the row index
+     * @param pt 	the mouse point
+     */
+    public boolean contains(int i, Point pt) {
+      return load(i).contains(pt);
+    }
+  }
+
+ // ======================================================================================== Inner class End
+}
@@ -0,0 +1,284 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  SimulationEngine.java : Steps all shapes at a fixed rate on its own thread.
+ *  The engine keeps the time of the last step so that a renderer can
+ *  interpolate between the previous and current position of every shape,
+ *  letting the painting rate and the simulation rate vary independently.
+ *  While it runs, only the simulation thread touches the shapes: other threads
+ *  submit commands which run between steps, and read the shapes through the
+ *  snapshots the engine publishes after each step. Steps are timed by a
+ *  FrameScheduler, so the rate can change without restarting the thread.
+ *  ===============================================================================
+ */
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class SimulationEngine implements Runnable {
+  public static final int MAX_STEPS_PER_UPDATE = 5;	// the most steps to catch up before dropping time
+  private Thread simulationThread = null;	// the thread for the simulation
+  private Vector<MovingShape> shapes;		// the shapes to step
+  private ParallelStepper stepper;			// moves large worlds on all cores
+  private SpatialGrid index = null;			// the grid kept up to date with the shapes, if any
+  private volatile CollisionSystem collider = null;	// bounces overlapping shapes, if collisions are on
+  private ConcurrentLinkedQueue<Runnable> commands;	// changes to the shapes waiting for the next step
+  private SnapshotBuffer snapshots;			// the published state of the shapes
+  private FrameScheduler scheduler;			// times the steps
+  private volatile long lastStepNanos;		// the simulated time of the current state
+  private volatile long ticks = 0;			// the number of steps taken so far
+  private volatile PerfMetrics metrics = null;	// records how long moving takes, if set
+  private volatile Runnable beforeStep = null;	// runs after the commands before each step, if set
+
+  /**
+   * Constructor of the SimulationEngine
+   * @param s 	the shapes to step
+   * @param stepMillis 	the length of one simulation step in ms
+   */
+  public SimulationEngine(Vector<MovingShape> s, int stepMillis) {
+    shapes = s;
+    stepper = new ParallelStepper();
+    commands = new ConcurrentLinkedQueue<Runnable>();
+    snapshots = new SnapshotBuffer();
+    scheduler = new FrameScheduler(Math.max(1, stepMillis) * 1000000L, FrameScheduler.CATCH_UP);
+    scheduler.setMaxCatchUp(MAX_STEPS_PER_UPDATE);
+    lastStepNanos = System.nanoTime();
+  }
+
+  /**
+   * Set the length of one simulation step. A running engine takes the
+   * next step one new step length after the last.
+   * @param stepMillis 	the step length in ms, at least 1
+   */
+  public void setStepMillis(int stepMillis) {
+    scheduler.setPeriodMillis(stepMillis);
+  }
+
+  /**
+   * Return the length of one simulation step
+   * @return the step length in ms
+   */
+  public int getStepMillis() {
+    return (int) (scheduler.getPeriodNanos() / 1000000L);
+  }
+
+  /**
+   * Set what happens to the steps missed when a step takes too long
+   * @param policy 	FrameScheduler.CATCH_UP to run up to MAX_STEPS_PER_UPDATE
+   * 	of them, or FrameScheduler.SKIP to drop them
+   */
+  public void setOverrunPolicy(int policy) {
+    scheduler.setPolicy(policy);
+  }
+
+  /**
+   * Return the scheduler timing the steps
+   * @return the scheduler
+   */
+  public FrameScheduler getScheduler() {
+    return scheduler;
+  }
+
+  /**
+   * Set the number of shapes above which a step is split across the fork-join pool
+   * @param threshold 	the largest number of shapes moved by one task
+   */
+  public void setParallelThreshold(int threshold) {
+    stepper.setThreshold(threshold);
+  }
+
+  /**
+   * Return the parallelism threshold
+   * @return the largest number of shapes moved by one task
+   */
+  public int getParallelThreshold() {
+    return stepper.getThreshold();
+  }
+
+  /**
+   * Set the spatial index to update after every step
+   * @param grid 	the grid holding the shapes, or null for none
+   */
+  public void setIndex(SpatialGrid grid) {
+    index = grid;
+  }
+
+  /**
+   * Turn shape-to-shape collisions on or off
+   * @param on 	true to make overlapping shapes bounce off each other
+   */
+  public void setCollisions(boolean on) {
+    collider = on ? new CollisionSystem() : null;
+  }
+
+  /**
+   * Return whether shape-to-shape collisions are on
+   * @return true if overlapping shapes bounce off each other
+   */
+  public boolean getCollisions() {
+    return collider != null;
+  }
+
+  /**
+   * Set the metrics to record the time taken to move the shapes in
+   * @param m 	the metrics, or null for none
+   */
+  public void setMetrics(PerfMetrics m) {
+    metrics = m;
+  }
+
+  /**
+   * Set a task to run on the simulation thread before every step, after the
+   * waiting commands, such as one feeding in recorded input
+   * @param task 	the task, or null for none
+   */
+  public void setBeforeStep(Runnable task) {
+    beforeStep = task;
+  }
+
+  /**
+   * Return the number of steps taken so far
+   * @return the tick count
+   */
+  public long getTicks() {
+    return ticks;
+  }
+
+  /**
+   * Return the snapshots the engine publishes for the renderer
+   * @return the snapshot buffer, to be read from one thread only
+   */
+  public SnapshotBuffer getSnapshots() {
+    return snapshots;
+  }
+
+  /**
+   * Run a change to the shapes on the simulation thread before the next step.
+   * If the engine is stopped the change runs straight away on the calling thread
+   * and a new snapshot is published, so the shapes' owner, such as the event
+   * thread, must be the one to submit it.
+   * @param command 	the change to make
+   */
+  public void submit(Runnable command) {
+    if (simulationThread != null) {
+      commands.add(command);
+    } else {
+      command.run();
+      publish(System.nanoTime(), 0);
+    }
+  }
+
+  /**
+   * Copy the shapes into the back snapshot and publish it
+   * @param time 	the simulated time of the current state
+   * @param step 	the step length to interpolate over, or 0 for none
+   */
+  public void publish(long time, long step) {
+    snapshots.getBack().copyFrom(shapes, ticks, time, step);
+    snapshots.publish();
+  }
+
+  /**
+   * Return whether the simulation thread is running
+   * @return true if the engine has been started and not stopped
+   */
+  public boolean isRunning() {
+    return simulationThread != null;
+  }
+
+  /**
+   * Return how far the current time is between the last step and the next one.
+   * @return the interpolation fraction, from 0 to 1
+   */
+  public double getAlpha() {
+    if (simulationThread == null)
+      return 1.0;
+    double alpha = (System.nanoTime() - lastStepNanos) / (double) scheduler.getPeriodNanos();
+    return Math.max(0.0, Math.min(1.0, alpha));
+  }
+
+  /**
+   * Run the waiting commands
+   * @return true if any command ran
+   */
+  public boolean runCommands() {
+    boolean ran = false;
+    Runnable command;
+    while ((command = commands.poll()) != null) {
+      command.run();
+      ran = true;
+    }
+    return ran;
+  }
+
+  /**
+   * Run the waiting commands and the before-step task, then move every shape by one step
+   */
+  public void step() {
+    runCommands();
+    Runnable task = beforeStep;
+    if (task != null)
+      task.run();
+    PerfMetrics m = metrics;
+    long start = m != null ? System.nanoTime() : 0;
+    stepper.step(shapes);
+    if (m != null)
+      m.record(PerfMetrics.MOVE, System.nanoTime() - start);
+    CollisionSystem c = collider;
+    if (c != null)
+      c.resolve(shapes);
+    if (index != null)
+      for (int i = 0; i < shapes.size(); i++)
+        index.update(shapes.elementAt(i));
+    ticks++;
+  }
+
+  /**
+   * Start the simulation thread
+   */
+  public void start() {
+    lastStepNanos = System.nanoTime();
+    simulationThread = new Thread(this, "SimulationEngine");
+    simulationThread.setDaemon(true);
+    simulationThread.start();
+  }
+
+  /**
+   * Stop the simulation thread and wait for it to finish its step,
+   * so the caller may change the shapes afterwards
+   */
+  public void stop() {
+    Thread t = simulationThread;
+    simulationThread = null;
+    if (t != null && t != Thread.currentThread()) {
+      t.interrupt();
+      try {
+        t.join();
+      } catch (InterruptedException ie) {}
+    }
+    runCommands();
+    publish(System.nanoTime(), 0);
+  }
+
+  /**
+   * Run the simulation, taking a step at every deadline of the scheduler
+   */
+  public void run() {
+    Thread myThread = Thread.currentThread();
+    scheduler.reset();
+    lastStepNanos = scheduler.getLastTick();
+    while (simulationThread == myThread) {
+      int steps;
+      try {
+        steps = scheduler.awaitTick();
+      } catch (InterruptedException ie) {
+        continue;
+      }
+      for (int i = 0; i < steps; i++)
+        step();
+      lastStepNanos = scheduler.getLastTick();
+      publish(lastStepNanos, scheduler.getPeriodNanos());
+    }
+  }
+}
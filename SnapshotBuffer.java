@@ -0,0 +1,58 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  SnapshotBuffer.java : Hands world snapshots from the simulation thread to the
+ *  render thread without locks (triple buffering). The writer owns a back buffer
+ *  and the reader owns a front buffer. Publishing swaps the back buffer with the
+ *  shared middle one, and acquiring swaps the middle one with the front buffer if
+ *  it holds a newer frame. Both swaps are a single atomic exchange, so neither
+ *  side ever waits for the other, and the reader always sees a whole frame.
+ *  ===============================================================================
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SnapshotBuffer {
+  private static final int INDEX = 3;		// the bits of the middle value holding the buffer index
+  private static final int FRESH = 4;		// set when the middle buffer holds a frame not yet acquired
+  private WorldSnapshot[] buffers;			// the three snapshots
+  private AtomicInteger middle;				// the index of the shared buffer, and the FRESH flag
+  private int back = 0;						// the buffer owned by the writer
+  private int front = 2;					// the buffer owned by the reader
+
+  /**
+   * Constructor to create three empty snapshots
+   */
+  public SnapshotBuffer() {
+    buffers = new WorldSnapshot[] { new WorldSnapshot(), new WorldSnapshot(), new WorldSnapshot() };
+    middle = new AtomicInteger(1);
+  }
+
+  /**
+   * Return the snapshot the writer may fill. Only the writer may call this.
+   * @return the back buffer
+   */
+  public WorldSnapshot getBack() {
+    return buffers[back];
+  }
+
+  /**
+   * Publish the back buffer and take the old middle buffer as the new back buffer.
+   * Only the writer may call this.
+   */
+  public void publish() {
+    back = middle.getAndSet(back | FRESH) & INDEX;
+  }
+
+  /**
+   * Return the newest published snapshot. The reader may use it until its next
+   * call to acquire. Only the reader may call this.
+   * @return the front buffer
+   */
+  public WorldSnapshot acquire() {
+    if ((middle.get() & FRESH) != 0)
+      front = middle.getAndSet(front) & INDEX;
+    return buffers[front];
+  }
+}
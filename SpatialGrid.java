@@ -0,0 +1,322 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  SpatialGrid.java : A uniform grid of square cells over the animation area.
+ *  Each shape is listed in every cell its bounds touch. When a shape moves only
+ *  the cells it leaves or enters are changed, so keeping the grid up to date is
+ *  cheap, and a point or rectangle query only looks at the shapes nearby.
+ *  Cells are found by their packed column and row in a map of primitive longs,
+ *  and the lists of emptied cells are kept for reuse, so a shape crossing a
+ *  cell edge does not allocate.
+ *  ===============================================================================
+ */
+
+import java.awt.*;
+import java.util.*;
+
+public class SpatialGrid {
+  public static final int DEFAULT_CELL_SIZE = 64;	// the default width and height of a cell
+  private int cellSize;								// the width and height of a cell
+  private CellMap cells;							// the shapes in each non-empty cell
+  private ArrayList<ArrayList<Entry>> spare;		// the emptied cell lists, for reuse
+  private IdentityHashMap<MovingShape, Entry> entries;	// the cells each shape is listed in
+
+  /**
+   * Constructor to create a grid with the default cell size
+   */
+  public SpatialGrid() {
+    this(DEFAULT_CELL_SIZE);
+  }
+
+  /**
+   * Constructor of the SpatialGrid
+   * @param size 	the width and height of a cell
+   */
+  public SpatialGrid(int size) {
+    cellSize = Math.max(1, size);
+    cells = new CellMap();
+    spare = new ArrayList<ArrayList<Entry>>();
+    entries = new IdentityHashMap<MovingShape, Entry>();
+  }
+
+  /**
+   * Return the number of shapes in the grid
+   * @return the shape count
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Make room for a number of shapes, so adding that many does not rehash the grid again and again
+   * @param n 	the number of shapes expected
+   */
+  public void ensureCapacity(int n) {
+    if (n > entries.size() * 2) {
+      IdentityHashMap<MovingShape, Entry> bigger = new IdentityHashMap<MovingShape, Entry>(n);
+      bigger.putAll(entries);
+      entries = bigger;
+    }
+  }
+
+  /**
+   * Remove all shapes from the grid
+   */
+  public void clear() {
+    cells.clear(spare);
+    entries.clear();
+  }
+
+  /**
+   * Add a shape to the grid, or update it if it is already there
+   * @param s 	the shape to add
+   */
+  public void add(MovingShape s) {
+    update(s);
+  }
+
+  /**
+   * Remove a shape from the grid
+   * @param s 	the shape to remove
+   */
+  public void remove(MovingShape s) {
+    Entry e = entries.remove(s);
+    if (e != null)
+      unlink(e);
+  }
+
+  /**
+   * Move a shape to the cells covered by its current bounds.
+   * Nothing changes unless the shape has crossed a cell edge.
+   * @param s 	the shape which may have moved or changed size
+   */
+  public void update(MovingShape s) {
+    int minCx = cell(s.getX()), minCy = cell(s.getY());
+    int maxCx = cell(s.getX() + s.getWidth() + 1), maxCy = cell(s.getY() + s.getHeight() + 1);
+    Entry e = entries.get(s);
+    if (e == null) {
+      e = new Entry(s);
+      entries.put(s, e);
+    } else if (e.minCx == minCx && e.minCy == minCy && e.maxCx == maxCx && e.maxCy == maxCy) {
+      return;
+    } else {
+      unlink(e);
+    }
+    e.minCx = minCx;
+    e.minCy = minCy;
+    e.maxCx = maxCx;
+    e.maxCy = maxCy;
+    for (int cx = minCx; cx <= maxCx; cx++)
+      for (int cy = minCy; cy <= maxCy; cy++) {
+        ArrayList<Entry> list = cells.get(key(cx, cy));
+        if (list == null) {
+          list = spare.isEmpty() ? new ArrayList<Entry>(4) : spare.remove(spare.size() - 1);
+          cells.put(key(cx, cy), list);
+        }
+        list.add(e);
+      }
+  }
+
+  /**
+   * Find the shapes whose bounds cover a point
+   * @param pt 	the point
+   * @param out 	the list to add the shapes to
+   */
+  public void query(Point pt, java.util.List<MovingShape> out) {
+    ArrayList<Entry> list = cells.get(key(cell(pt.x), cell(pt.y)));
+    if (list == null)
+      return;
+    for (int i = 0; i < list.size(); i++) {
+      MovingShape s = list.get(i).shape;
+      if (s.getX() <= pt.x && pt.x <= s.getX() + s.getWidth() + 1 && s.getY() <= pt.y && pt.y <= s.getY() + s.getHeight() + 1)
+        out.add(s);
+    }
+  }
+
+  /**
+   * Find the shapes whose bounds intersect a rectangle. Each shape is found once.
+   * @param r 	the rectangle
+   * @param out 	the list to add the shapes to
+   */
+  public void query(Rectangle r, java.util.List<MovingShape> out) {
+    int minCx = cell(r.x), minCy = cell(r.y);
+    int maxCx = cell(r.x + r.width), maxCy = cell(r.y + r.height);
+    for (int cx = minCx; cx <= maxCx; cx++)
+      for (int cy = minCy; cy <= maxCy; cy++) {
+        ArrayList<Entry> list = cells.get(key(cx, cy));
+        if (list == null)
+          continue;
+        for (int i = 0; i < list.size(); i++) {
+          Entry e = list.get(i);
+          // a shape is listed in many cells, so only report it from the first cell both share
+          if (cx != Math.max(minCx, e.minCx) || cy != Math.max(minCy, e.minCy))
+            continue;
+          MovingShape s = e.shape;
+          if (s.getX() <= r.x + r.width && r.x <= s.getX() + s.getWidth() + 1 && s.getY() <= r.y + r.height && r.y <= s.getY() + s.getHeight() + 1)
+            out.add(s);
+        }
+      }
+  }
+
+  /**
+   * Remove an entry from every cell it is listed in
+   */
+  private void unlink(Entry e) {
+    for (int cx = e.minCx; cx <= e.maxCx; cx++)
+      for (int cy = e.minCy; cy <= e.maxCy; cy++) {
+        long k = key(cx, cy);
+        ArrayList<Entry> list = cells.get(k);
+        if (list != null) {
+          list.remove(e);
+          if (list.isEmpty())
+            spare.add(cells.remove(k));
+        }
+      }
+  }
+
+  /**
+   * Return the cell column or row holding a coordinate
+   */
+  private int cell(int v) {
+    return Math.floorDiv(v, cellSize);
+  }
+
+  /**
+   * Return the map key of a cell
+   */
+  private static long key(int cx, int cy) {
+    return ((long) cx << 32) | (cy & 0xffffffffL);
+  }
+
+  // Inner class ===================================================================== Inner class start
+
+  /*
+   *  ===============================================================================
+   *  Entry : A shape and the range of cells it is listed in.
+   *  ===============================================================================
+   */
+  private static class Entry {
+    MovingShape shape;
+    int minCx, minCy, maxCx, maxCy;
+
+    Entry(MovingShape s) {
+      shape = s;
+    }
+  }
+
+  /*
+   *  ===============================================================================
+   *  CellMap : The cell lists by packed cell key, in open addressed arrays with
+   *  linear probing, so looking a cell up does not box its key.
+   *  ===============================================================================
+   */
+  private static class CellMap {
+    private long[] keys = new long[64];		// the key in each slot
+    private ArrayList<Entry>[] lists = newLists(64);	// the list in each slot, or null if it is free
+    private int size = 0;					// the number of slots in use
+
+    /**
+     * Return the list of a cell
+     * @param k 	the cell key
+     * @return the list, or null if the cell is empty
+     */
+    ArrayList<Entry> get(long k) {
+      int mask = keys.length - 1;
+      for (int i = slot(k, mask); lists[i] != null; i = (i + 1) & mask)
+        if (keys[i] == k)
+          return lists[i];
+      return null;
+    }
+
+    /**
+     * Set the list of a cell which has none
+     * @param k 	the cell key
+     * @param list 	the list
+     */
+    void put(long k, ArrayList<Entry> list) {
+      if (2 * (size + 1) > keys.length)
+        grow();
+      int mask = keys.length - 1;
+      int i = slot(k, mask);
+      while (lists[i] != null)
+        i = (i + 1) & mask;
+      keys[i] = k;
+      lists[i] = list;
+      size++;
+    }
+
+    /**
+     * Remove the list of a cell, moving back the lists probed past it
+     * @param k 	the cell key
+     * @return the list removed, or null if the cell had none
+     */
+    ArrayList<Entry> remove(long k) {
+      int mask = keys.length - 1;
+      int i = slot(k, mask);
+      while (lists[i] != null && keys[i] != k)
+        i = (i + 1) & mask;
+      ArrayList<Entry> removed = lists[i];
+      if (removed == null)
+        return null;
+      lists[i] = null;
+      size--;
+      for (int j = (i + 1) & mask; lists[j] != null; j = (j + 1) & mask) {
+        int home = slot(keys[j], mask);
+        // move it into the gap unless its home slot lies after the gap, up to where it is
+        if (((j - home) & mask) >= ((j - i) & mask)) {
+          keys[i] = keys[j];
+          lists[i] = lists[j];
+          lists[j] = null;
+          i = j;
+        }
+      }
+      return removed;
+    }
+
+    /**
+     * Empty the map
+     * @param emptied 	is given every list, emptied
+     */
+    void clear(java.util.List<ArrayList<Entry>> emptied) {
+      for (int i = 0; i < lists.length; i++)
+        if (lists[i] != null) {
+          lists[i].clear();
+          emptied.add(lists[i]);
+          lists[i] = null;
+        }
+      size = 0;
+    }
+
+    /**
+     * Double the number of slots, placing every list again
+     */
+    private void grow() {
+      long[] oldKeys = keys;
+      ArrayList<Entry>[] oldLists = lists;
+      keys = new long[oldKeys.length * 2];
+      lists = newLists(oldKeys.length * 2);
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++)
+        if (oldLists[i] != null)
+          put(oldKeys[i], oldLists[i]);
+    }
+
+    /**
+     * Return the slot a key is looked for from
+     */
+    private static int slot(long k, int mask) {
+      return (int) ((k * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    /**
+     * Make an array of free slots
+     */
+    @SuppressWarnings("unchecked")
+    private static ArrayList<Entry>[] newLists(int n) {
+      return (ArrayList<Entry>[]) new ArrayList<?>[n];
+    }
+  }
+
+ // ======================================================================================== Inner class End
+}
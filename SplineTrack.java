@@ -0,0 +1,226 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  SplineTrack.java : A closed path defined by data, compiled into the place
+ *  a shape reaches after every step. A track is made either from control
+ *  points joined by a Catmull-Rom spline and a speed, or from keyframes giving
+ *  the place at some steps. A spline is measured along its length once, when
+ *  it is made, and then cut into pieces of equal length, so shapes move at the
+ *  same speed round tight and wide curves. The table is shared by every shape
+ *  on the track, and each step is one look-up, not a curve solve.
+ *  Places are fractions of the room a shape has in the panel, from 0 to 1, so
+ *  a track fits any panel and any shape size.
+ *  Tracks are registered with the path Ids from MovingPath.SPLINE up, which
+ *  setPath takes like the Ids of the other paths.
+ *  ===============================================================================
+ */
+
+import java.util.Arrays;
+
+public final class SplineTrack {
+  private static final int SAMPLES = 64;	// the pieces each spline segment is measured in
+  private static final int MAX_ID = Byte.MAX_VALUE;	// the largest path Id, which ShapeStore keeps in a byte
+  private static volatile SplineTrack[] tracks = new SplineTrack[0];	// the registered tracks, replaced on every register
+
+  // a figure of eight across the panel, moving about 5 pixels a step in a 500 pixel panel
+  public static final SplineTrack FIGURE_EIGHT = catmullRom("Figure Eight", new double[] {
+    0.5, 0.5, 0.85, 0.15, 1.0, 0.5, 0.85, 0.85, 0.5, 0.5, 0.15, 0.15, 0.0, 0.5, 0.15, 0.85 }, 0.01);
+
+  static {
+    register(FIGURE_EIGHT);
+  }
+
+  private String name;		// the name, for menus and reports
+  private float[] xs, ys;	// the place after each step, as fractions of the room
+  private int id = -1;		// the path Id, once registered
+
+  /**
+   * Constructor to create a track from its table
+   */
+  private SplineTrack(String n, float[] x, float[] y) {
+    name = n;
+    xs = x;
+    ys = y;
+  }
+
+  /**
+   * Make a closed track through control points, joined by a Catmull-Rom spline
+   * @param name 	the name of the track
+   * @param points 	the x and y of each point in turn, as fractions of the room, at least two points
+   * @param speed 	the distance moved each step, as a fraction of the room
+   * @return the track, not yet registered
+   */
+  public static SplineTrack catmullRom(String name, double[] points, double speed) {
+    int n = points.length / 2;
+    if (n < 2 || points.length % 2 != 0)
+      throw new IllegalArgumentException("A spline needs at least two points");
+    if (!(speed > 0))
+      throw new IllegalArgumentException("Bad speed " + speed);
+    // measure the curve as a line through many points on it
+    int samples = n * SAMPLES;
+    double[] px = new double[samples + 1], py = new double[samples + 1], length = new double[samples + 1];
+    for (int i = 0; i < n; i++) {
+      double x0 = points[2 * ((i + n - 1) % n)], y0 = points[2 * ((i + n - 1) % n) + 1];
+      double x1 = points[2 * i], y1 = points[2 * i + 1];
+      double x2 = points[2 * ((i + 1) % n)], y2 = points[2 * ((i + 1) % n) + 1];
+      double x3 = points[2 * ((i + 2) % n)], y3 = points[2 * ((i + 2) % n) + 1];
+      for (int j = 0; j < SAMPLES; j++) {
+        double t = j / (double) SAMPLES;
+        px[i * SAMPLES + j] = catmullRom(x0, x1, x2, x3, t);
+        py[i * SAMPLES + j] = catmullRom(y0, y1, y2, y3, t);
+      }
+    }
+    px[samples] = px[0];
+    py[samples] = py[0];
+    for (int k = 1; k <= samples; k++)
+      length[k] = length[k - 1] + Math.hypot(px[k] - px[k - 1], py[k] - py[k - 1]);
+    // then cut it into steps of equal length
+    int steps = Math.max(1, (int) Math.round(length[samples] / speed));
+    float[] xs = new float[steps], ys = new float[steps];
+    int k = 0;
+    for (int s = 0; s < steps; s++) {
+      double along = length[samples] * s / steps;
+      while (length[k + 1] < along)
+        k++;
+      double piece = length[k + 1] - length[k];
+      double t = piece > 0 ? (along - length[k]) / piece : 0;
+      xs[s] = (float) clamp(px[k] + (px[k + 1] - px[k]) * t);
+      ys[s] = (float) clamp(py[k] + (py[k + 1] - py[k]) * t);
+    }
+    return new SplineTrack(name, xs, ys);
+  }
+
+  /**
+   * Make a closed track from keyframes, moving in a straight line from each one to the next.
+   * The last keyframe gives the length of one lap, after which the track starts again at the first.
+   * @param name 	the name of the track
+   * @param times 	the step of each keyframe, starting at 0 and increasing
+   * @param points 	the x and y of each keyframe in turn, as fractions of the room
+   * @return the track, not yet registered
+   */
+  public static SplineTrack keyframes(String name, int[] times, double[] points) {
+    int n = times.length;
+    if (n < 2 || points.length != 2 * n || times[0] != 0)
+      throw new IllegalArgumentException("Keyframes need at least two times from 0, with a point for each");
+    for (int i = 1; i < n; i++)
+      if (times[i] <= times[i - 1])
+        throw new IllegalArgumentException("Keyframe times must increase");
+    int steps = times[n - 1];
+    float[] xs = new float[steps], ys = new float[steps];
+    int k = 0;
+    for (int s = 0; s < steps; s++) {
+      while (times[k + 1] <= s)
+        k++;
+      double t = (s - times[k]) / (double) (times[k + 1] - times[k]);
+      xs[s] = (float) clamp(points[2 * k] + (points[2 * k + 2] - points[2 * k]) * t);
+      ys[s] = (float) clamp(points[2 * k + 1] + (points[2 * k + 3] - points[2 * k + 1]) * t);
+    }
+    return new SplineTrack(name, xs, ys);
+  }
+
+  /**
+   * Register a track, so shapes can be given it by its path Id
+   * @param t 	the track
+   * @return the path Id of the track
+   * @throws IllegalStateException if there is no path Id left
+   */
+  public static synchronized int register(SplineTrack t) {
+    if (t.id >= 0)
+      return t.id;
+    SplineTrack[] all = tracks;
+    if (MovingShape.MovingPath.SPLINE + all.length > MAX_ID)
+      throw new IllegalStateException("No path Id left for " + t.name);
+    SplineTrack[] more = Arrays.copyOf(all, all.length + 1);
+    more[all.length] = t;
+    t.id = MovingShape.MovingPath.SPLINE + all.length;
+    tracks = more;
+    return t.id;
+  }
+
+  /**
+   * Return the track registered with a path Id
+   * @param pathID 	the path Id
+   * @return the track, or null if the Id is not a registered track
+   */
+  public static SplineTrack get(int pathID) {
+    SplineTrack[] all = tracks;
+    int i = pathID - MovingShape.MovingPath.SPLINE;
+    return i >= 0 && i < all.length ? all[i] : null;
+  }
+
+  /**
+   * Return the number of registered tracks
+   * @return the track count
+   */
+  public static int count() {
+    return tracks.length;
+  }
+
+  /**
+   * Return the name of the track
+   * @return the name
+   */
+  public String getName() { return name; }
+
+  /**
+   * Return the path Id of the track
+   * @return the Id, or -1 if it is not registered
+   */
+  public int getId() { return id; }
+
+  /**
+   * Return the number of steps in one lap of the track
+   * @return the step count, at least 1
+   */
+  public int length() { return xs.length; }
+
+  /**
+   * Return the step after a step, going either way round the track
+   * @param step 	the step, from 0 to length() - 1
+   * @param by 	1 to go forwards, -1 to go backwards
+   * @return the next step, from 0 to length() - 1
+   */
+  public int next(int step, int by) {
+    step += by;
+    if (step >= xs.length)
+      return step - xs.length;
+    return step < 0 ? step + xs.length : step;
+  }
+
+  /**
+   * Return the x-coordinate reached after a step
+   * @param step 	the step, from 0 to length() - 1
+   * @param room 	the largest x-coordinate the shape may have
+   * @return the x-coordinate
+   */
+  public int getX(int step, int room) {
+    return Math.round(xs[step] * Math.max(0, room));
+  }
+
+  /**
+   * Return the y-coordinate reached after a step
+   * @param step 	the step, from 0 to length() - 1
+   * @param room 	the largest y-coordinate the shape may have
+   * @return the y-coordinate
+   */
+  public int getY(int step, int room) {
+    return Math.round(ys[step] * Math.max(0, room));
+  }
+
+  /**
+   * Return a point on one segment of a Catmull-Rom spline
+   * @param t 	how far along the segment from p1 to p2, from 0 to 1
+   */
+  private static double catmullRom(double p0, double p1, double p2, double p3, double t) {
+    return 0.5 * (2 * p1 + (p2 - p0) * t + (2 * p0 - 5 * p1 + 4 * p2 - p3) * t * t
+      + (3 * p1 - p0 - 3 * p2 + p3) * t * t * t);
+  }
+
+  /**
+   * Keep a fraction of the room inside it, as a spline can swing past its points
+   */
+  private static double clamp(double f) {
+    return Math.max(0.0, Math.min(1.0, f));
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  SpriteCache.java : Pre-rasterised images of shapes, so drawing a shape is one
+ *  drawImage. A sprite is keyed by everything that changes how a shape looks:
+ *  its type, width, height, fill and border colour, and for a pacman its mouth.
+ *  The least recently used sprites are dropped once the cache holds more than
+ *  its memory bound. Images are created compatible with the screen when there
+ *  is one, so Java2D can keep them in video memory as managed images.
+ *  ===============================================================================
+ */
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.*;
+
+public class SpriteCache {
+  public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;	// the default memory bound
+  private LinkedHashMap<Key, BufferedImage> sprites;	// the sprites, least recently used first
+  private long maxBytes;						// the memory bound
+  private long bytes = 0;						// the memory used by the sprites
+  private long hits = 0, misses = 0;			// the lookups found and not found
+  private Key probe = new Key();				// the key reused for lookups
+  private GraphicsConfiguration config;			// the screen to make images for, if any
+
+  /**
+   * Constructor to create a cache with the default memory bound
+   */
+  public SpriteCache() {
+    this(DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * Constructor of the SpriteCache
+   * @param max 	the most bytes of pixels to hold
+   */
+  public SpriteCache(long max) {
+    maxBytes = max;
+    sprites = new LinkedHashMap<Key, BufferedImage>(256, 0.75f, true);
+    if (!GraphicsEnvironment.isHeadless())
+      config = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+  }
+
+  /**
+   * Draw a shape and its handles from its sprite
+   * @param s 	the shape
+   * @param g 	the Graphics control
+   * @param x 	the x-coordinate of the top left corner
+   * @param y 	the y-coordinate of the top left corner
+   */
+  public void draw(MovingShape s, Graphics g, int x, int y) {
+    // a rectangle is two fills, which is quicker than a blit
+    BufferedImage sprite = s.getShapeType() == MovingShape.RECTANGLE ? null : get(s);
+    if (sprite != null)
+      g.drawImage(sprite, x, y, null);
+    else
+      s.drawShape(g, x, y);
+    s.drawHandles(g, x, y);
+  }
+
+  /**
+   * Return the sprite for a shape as it looks now, drawing it if it is not cached
+   * @param s 	the shape
+   * @return the sprite with the shape's top left corner at (0, 0), or null if it is too big to cache
+   */
+  public synchronized BufferedImage get(MovingShape s) {
+    probe.set(s);
+    BufferedImage sprite = sprites.get(probe);
+    if (sprite != null) {
+      hits++;
+      return sprite;
+    }
+    misses++;
+    long size = spriteBytes(s);
+    if (size > maxBytes / 4)
+      return null;
+    sprite = render(s);
+    sprites.put(probe.copy(), sprite);
+    bytes += size;
+    Iterator<Map.Entry<Key, BufferedImage>> it = sprites.entrySet().iterator();
+    while (bytes > maxBytes && it.hasNext()) {		// drop the least recently used
+      BufferedImage old = it.next().getValue();
+      bytes -= (long) old.getWidth() * old.getHeight() * 4;
+      it.remove();
+    }
+    return sprite;
+  }
+
+  /**
+   * Remove every sprite
+   */
+  public synchronized void clear() {
+    sprites.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Return the number of sprites held
+   * @return the sprite count
+   */
+  public synchronized int size() { return sprites.size(); }
+
+  /**
+   * Return the memory used by the sprites
+   * @return the bytes of pixels held
+   */
+  public synchronized long getBytes() { return bytes; }
+
+  /**
+   * Return the number of lookups which found a sprite
+   * @return the hit count
+   */
+  public synchronized long getHits() { return hits; }
+
+  /**
+   * Return the number of lookups which had to draw a sprite
+   * @return the miss count
+   */
+  public synchronized long getMisses() { return misses; }
+
+  /**
+   * Return the bytes a shape's sprite takes; the border is drawn one pixel past the size
+   */
+  private static long spriteBytes(MovingShape s) {
+    return (long) (s.getWidth() + 1) * (s.getHeight() + 1) * 4;
+  }
+
+  /**
+   * Draw a shape into a new transparent image
+   */
+  private BufferedImage render(MovingShape s) {
+    int w = s.getWidth() + 1, h = s.getHeight() + 1;
+    BufferedImage sprite = config != null ? config.createCompatibleImage(w, h, Transparency.TRANSLUCENT)
+      : new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = sprite.createGraphics();
+    try {
+      s.drawShape(g, 0, 0);
+    } finally {
+      g.dispose();
+    }
+    return sprite;
+  }
+
+  // Inner class ===================================================================== Inner class start
+
+  /*
+   *  ===============================================================================
+   *  Key : Everything that changes how a shape looks.
+   *  ===============================================================================
+   */
+  private static class Key {
+    int type, width, height, fill, border, mouth;
+
+    /**
+     * Set the key from a shape
+     */
+    void set(MovingShape s) {
+      type = s.getShapeType();
+      width = s.getWidth();
+      height = s.getHeight();
+      fill = s.getFillColor().getRGB();
+      border = s.getBorderColor().getRGB();
+      mouth = type == MovingShape.PACMAN ? ((MovingPacMan) s).getMouth() : 0;
+    }
+
+    /**
+     * Return a copy of the key to store in the map
+     */
+    Key copy() {
+      Key k = new Key();
+      k.type = type;
+      k.width = width;
+      k.height = height;
+      k.fill = fill;
+      k.border = border;
+      k.mouth = mouth;
+      return k;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return false;
+      Key k = (Key) o;
+      return type == k.type && width == k.width && height == k.height && fill == k.fill && border == k.border && mouth == k.mouth;
+    }
+
+    public int hashCode() {
+      int h = type;
+      h = h * 31 + width;
+      h = h * 31 + height;
+      h = h * 31 + fill;
+      h = h * 31 + border;
+      return h * 31 + mouth;
+    }
+  }
+
+ // ======================================================================================== Inner class End
+}
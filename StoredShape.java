@@ -0,0 +1,132 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  StoredShape.java : Adapts one row of a ShapeStore to the MovingShape API.
+ *  The adapter keeps no state of its own, every call reads or writes the row.
+ *  Drawing and hit-testing go through the store's shared Painter, so adapters
+ *  of one store must be drawn from one thread at a time.
+ *  ===============================================================================
+ */
+
+import java.awt.*;
+
+public class StoredShape extends MovingShape {
+  private ShapeStore store;		// the store holding the shape
+  private int index;			// the row of the shape in the store
+
+  /**
+   * Constructor to adapt a row of a store
+   * @param s 	the store holding the shape
+   * @param i 	the row index of the shape
+   */
+  public StoredShape(ShapeStore s, int i) {
+    super(0, 0, 0, 0, s.getMarginWidth(), s.getMarginHeight(), null, null, -1, null);	// the store chooses its rows' paths
+    store = s;
+    index = i;
+  }
+
+  /**
+   * Return the row of the shape in the store
+   * @return the row index
+   */
+  public int getIndex() { return index; }
+
+  // the MovingShape API, read from and written to the row =========================
+
+  public int getX() { return store.getX(index); }
+
+  public int getY() { return store.getY(index); }
+
+  public int getWidth() { return store.getWidth(index); }
+
+  public int getHeight() { return store.getHeight(index); }
+
+  public Color getFillColor() { return new Color(store.getFill(index), true); }
+
+  public Color getBorderColor() { return new Color(store.getBorder(index), true); }
+
+  public boolean isSelected() { return store.isSelected(index); }
+
+  public void setSelected(boolean s) { store.setSelected(index, s); }
+
+  public void setWidth(int w) { store.setWidth(index, w); }
+
+  public void setHeight(int h) { store.setHeight(index, h); }
+
+  public void setFillColor(Color f) { store.setFill(index, f); }
+
+  public void setBorderColor(Color b) { store.setBorder(index, b); }
+
+  /**
+   * Reset the margin, which is shared by every shape in the store
+   * @param w 	the margin width
+   * @param h 	the margin height
+   */
+  public void setMarginSize(int w, int h) {
+    marginWidth = w;
+    marginHeight = h;
+    store.setMarginSize(w, h);
+  }
+
+  /**
+   * Return the type of the stored shape
+   * @return the shape type
+   */
+  public int getShapeType() { return store.getType(index); }
+
+  /**
+   * Set the path of the stored shape. The super constructor calls this
+   * before the store is set, when there is no row to change yet.
+   * @param pathID 	the integer value of the path
+   */
+  public void setPath(int pathID) {
+    if (store != null)
+      store.setPath(index, pathID);
+  }
+
+  /**
+   * The path state lives in the store, so there is no path object to return
+   * @return null
+   */
+  public MovingPath getPath() { return null; }
+
+  /**
+   * Move the stored shape by its path
+   */
+  public void move() {
+    store.moveRange(index, index + 1);
+  }
+
+  public boolean contains(Point pt) {
+    return store.getPainter().contains(index, pt);
+  }
+
+  public void draw(Graphics g) {
+    store.getPainter().draw(g, index);
+  }
+
+  public void draw(Graphics g, int x, int y) {
+    store.getPainter().load(index).draw(g, x, y);
+  }
+
+  public void drawInterpolated(Graphics g, double alpha) {
+    store.getPainter().drawInterpolated(g, index, alpha);
+  }
+
+  public void drawHandles(Graphics g) {
+    drawHandles(g, getX(), getY());
+  }
+
+  public void drawHandles(Graphics g, int x, int y) {
+    store.getPainter().load(index).drawHandles(g, x, y);
+  }
+
+  protected void drawShape(Graphics g, int x, int y) {
+    store.getPainter().load(index).drawShape(g, x, y);
+  }
+
+  public String toString() {
+    return "[" + this.getClass().getName() + "," + getX() + "," + getY() + "]";
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  ThroughputBenchmark.java : Measures how fast the whole simulation runs with
+ *  no window, for tracking throughput from build to build on headless hosts.
+ *  It builds a seeded world of mixed shapes and paths, runs some warmup ticks,
+ *  then times each of the measured ticks as fast as they will go, drawing
+ *  every tick into an offscreen image if asked. It prints one machine-readable
+ *  record: the tick rate, the shape ticks per second, the tick latency
+ *  percentiles, and the garbage collections and allocation during the run.
+ *
+ *  To run: java ThroughputBenchmark [-json] [-render] [-collisions] [shapes] [ticks] [seed]
+ *  ===============================================================================
+ */
+
+import java.awt.image.BufferedImage;
+import java.lang.management.*;
+import java.util.*;
+
+public class ThroughputBenchmark {
+  private static final int SIZE = 1000;			// the width and height of the world
+  private static final String[] FIELDS = { "shapes", "ticks", "render", "collisions", "seconds",
+    "ticks_per_sec", "shape_ticks_per_sec", "p50_tick_us", "p99_tick_us", "max_tick_us",
+    "gc_count", "gc_time_ms", "allocated_mb" };
+
+  /**
+   * Main method: run the benchmark and print its record as CSV, or JSON with -json
+   */
+  public static void main(String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    boolean json = false, render = false, collisions = false;
+    int a = 0;
+    for (; a < args.length && args[a].startsWith("-"); a++) {
+      if (args[a].equals("-json"))
+        json = true;
+      else if (args[a].equals("-render"))
+        render = true;
+      else if (args[a].equals("-collisions"))
+        collisions = true;
+      else
+        throw new IllegalArgumentException("Unknown option " + args[a]);
+    }
+    int shapes = args.length > a ? Integer.parseInt(args[a]) : 10000;
+    int ticks = args.length > a + 1 ? Integer.parseInt(args[a + 1]) : 1000;
+    long seed = args.length > a + 2 ? Long.parseLong(args[a + 2]) : 1;
+    Object[] result = run(shapes, ticks, render, collisions, seed);
+    System.out.println(json ? toJson(result) : toCsv(result));
+  }
+
+  /**
+   * Build a world and time its ticks
+   * @param shapes 	the number of shapes
+   * @param ticks 	the number of ticks to measure, after a tenth as many to warm up
+   * @param render 	whether every tick is also drawn into an offscreen image
+   * @param collisions 	whether overlapping shapes bounce off each other
+   * @param seed 	the seed of the world
+   * @return the values of FIELDS, in order
+   */
+  public static Object[] run(int shapes, int ticks, boolean render, boolean collisions, long seed) {
+    HeadlessRenderer world = new HeadlessRenderer(SIZE, SIZE);
+    world.addRandomShapes(shapes, new Random(seed));
+    SimulationEngine engine = world.getEngine();
+    engine.setCollisions(collisions);
+    BufferedImage image = render ? new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB) : null;
+    for (int t = 0; t < Math.max(1, ticks / 10); t++)
+      tick(engine, world, image);
+
+    PerfMetrics.Histogram latency = new PerfMetrics.Histogram();
+    long gcCount = gcCount(), gcTime = gcTime(), allocated = PerfMetrics.totalAllocated();
+    long start = System.nanoTime();
+    for (int t = 0; t < ticks; t++) {
+      long begin = System.nanoTime();
+      tick(engine, world, image);
+      latency.record(System.nanoTime() - begin);
+    }
+    long elapsed = System.nanoTime() - start;
+    gcCount = gcCount() - gcCount;
+    gcTime = gcTime() - gcTime;
+    allocated = PerfMetrics.totalAllocated() - allocated;
+    PerfMetrics.Histogram.Snapshot s = new PerfMetrics.Histogram.Snapshot();
+    latency.drainTo(s);
+
+    double seconds = elapsed / 1e9;
+    return new Object[] { shapes, ticks, render, collisions, seconds,
+      ticks / seconds, (double) ticks * shapes / seconds,
+      s.getPercentile(0.5) / 1e3, s.getPercentile(0.99) / 1e3, s.getMax() / 1e3,
+      gcCount, gcTime, allocated / (1024.0 * 1024.0) };
+  }
+
+  /**
+   * Take one step, and draw it if there is an image to draw into
+   */
+  private static void tick(SimulationEngine engine, HeadlessRenderer world, BufferedImage image) {
+    engine.step();
+    if (image != null)
+      world.drawFrame(image);
+  }
+
+  /**
+   * Return the number of collections every collector has made
+   */
+  private static long gcCount() {
+    long total = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      total += Math.max(0, gc.getCollectionCount());
+    return total;
+  }
+
+  /**
+   * Return the time every collector has spent collecting in ms
+   */
+  private static long gcTime() {
+    long total = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      total += Math.max(0, gc.getCollectionTime());
+    return total;
+  }
+
+  /**
+   * Return a result as a CSV header line and a value line
+   */
+  static String toCsv(Object[] values) {
+    StringBuilder sb = new StringBuilder(String.join(",", FIELDS)).append('\n');
+    for (int k = 0; k < values.length; k++)
+      sb.append(k > 0 ? "," : "").append(format(values[k]));
+    return sb.toString();
+  }
+
+  /**
+   * Return a result as one JSON object
+   */
+  static String toJson(Object[] values) {
+    StringBuilder sb = new StringBuilder("{");
+    for (int k = 0; k < values.length; k++)
+      sb.append(k > 0 ? ", " : "").append('"').append(FIELDS[k]).append("\": ").append(format(values[k]));
+    return sb.append('}').toString();
+  }
+
+  /**
+   * Return a value as a number or boolean literal, as CSV and JSON both read them
+   */
+  private static String format(Object v) {
+    return v instanceof Double ? String.format(Locale.ROOT, "%.3f", (Double) v) : String.valueOf(v);
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  TiledRenderer.java : Draws a ShapeStore on several cores at once. The frame
+ *  is cut into tiles, bands of rows the full width of the frame, and each shape
+ *  is binned into every tile its bounds touch. Worker threads then take tiles
+ *  one at a time and draw each into its band of a shared offscreen image, with
+ *  the tile as the clip and a painter of their own, in the shapes' order. The
+ *  finished frame is drawn onto the screen with a single drawImage.
+ *  Shapes may be drawn from a sprite cache, which every worker shares, as
+ *  the cache is synchronized.
+ *  ===============================================================================
+ */
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TiledRenderer {
+  public static final int DEFAULT_TILE_HEIGHT = 64;	// the default height of a tile
+  private int tileHeight;						// the height of a tile
+  private ForkJoinPool pool;					// the threads which draw the tiles
+  private ArrayList<Callable<Void>> workers;	// one task per thread, each drawing tiles until there are none left
+  private BufferedImage image = null;			// the frame being drawn
+  private int tiles = 0;						// the number of tiles in the frame
+  private int[][] tileRows = new int[0][];		// the rows of the shapes touching each tile, in order
+  private int[] tileCounts = new int[0];		// the number of shapes touching each tile
+  private AtomicInteger nextTile = new AtomicInteger();	// the next tile for a worker to take
+  private Rectangle clipBounds = new Rectangle();	// the area being drawn, reused
+  private SpriteCache sprites = null;			// the sprites the workers draw from, if any
+  // the frame being drawn, for the workers
+  private ShapeStore frameStore;
+  private double frameAlpha;
+  private Color frameBackground;
+  private Rectangle frameClip = new Rectangle();
+
+  /**
+   * Constructor to create a renderer with a thread per core and tiles of the default height
+   */
+  public TiledRenderer() {
+    this(Runtime.getRuntime().availableProcessors(), DEFAULT_TILE_HEIGHT);
+  }
+
+  /**
+   * Constructor of the TiledRenderer
+   * @param threads 	the number of threads drawing tiles
+   * @param height 	the height of a tile
+   */
+  public TiledRenderer(int threads, int height) {
+    tileHeight = Math.max(1, height);
+    pool = new ForkJoinPool(Math.max(1, threads));
+    workers = new ArrayList<Callable<Void>>();
+    for (int k = 0; k < pool.getParallelism(); k++) {
+      final int worker = k;
+      workers.add(new Callable<Void>() {
+        public Void call() {
+          drawTiles(worker);
+          return null;
+        }
+      });
+    }
+  }
+
+  /**
+   * Return the number of threads drawing tiles
+   * @return the thread count
+   */
+  public int getThreads() {
+    return workers.size();
+  }
+
+  /**
+   * Set the sprites to draw the shapes from
+   * @param cache 	the sprite cache, or null to draw the shapes directly
+   */
+  public void setSprites(SpriteCache cache) {
+    sprites = cache;
+  }
+
+  /**
+   * Return the number of tiles in the last frame
+   * @return the tile count
+   */
+  public int getTiles() {
+    return tiles;
+  }
+
+  /**
+   * Draw every shape of a store inside the clip part way between its previous and current
+   * position, over a background, then copy the frame onto the Graphics.
+   * Only one thread may draw at a time.
+   * @param g 	the Graphics control
+   * @param store 	the shapes
+   * @param alpha 	the fraction of the step between the two positions, from 0 to 1
+   * @param width 	the width of the frame
+   * @param height 	the height of the frame
+   * @param background 	the colour behind the shapes
+   */
+  public void draw(Graphics g, ShapeStore store, double alpha, int width, int height, Color background) {
+    if (width <= 0 || height <= 0)
+      return;
+    if (image == null || image.getWidth() != width || image.getHeight() != height)
+      image = makeImage(g, width, height);
+    clipBounds.setBounds(0, 0, width, height);
+    Rectangle clip = g.getClipBounds(clipBounds);	// left as the whole frame if there is no clip
+    frameClip.setBounds(clip);
+    bin(store, clip, height);
+    frameStore = store;
+    frameAlpha = alpha;
+    frameBackground = background;
+    nextTile.set(0);
+    for (int k = 0; k < workers.size(); k++)
+      store.getPainter(k + 1);		// made here, as the workers may not add to the store
+    for (Future<Void> f : pool.invokeAll(workers)) {
+      try {
+        f.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+    frameStore = null;
+    g.drawImage(image, 0, 0, null);
+  }
+
+  /**
+   * Stop the threads. The renderer cannot draw afterwards.
+   */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  /**
+   * List the shapes which may touch each tile inside the clip, keeping their order
+   */
+  private void bin(ShapeStore store, Rectangle clip, int height) {
+    tiles = (height + tileHeight - 1) / tileHeight;
+    if (tileRows.length < tiles) {
+      tileRows = Arrays.copyOf(tileRows, tiles);
+      tileCounts = new int[tiles];
+    }
+    for (int t = 0; t < tiles; t++) {
+      tileCounts[t] = 0;
+      if (tileRows[t] == null)
+        tileRows[t] = new int[16];
+    }
+    int minTile = Math.max(0, clip.y / tileHeight), maxTile = Math.min(tiles - 1, (clip.y + clip.height - 1) / tileHeight);
+    for (int i = 0; i < store.size(); i++) {
+      if (!store.intersects(i, clip))
+        continue;
+      // the same bounds as intersects: both ends of the step, with the border and handles
+      int top = Math.min(store.y[i], store.prevY[i]) - 2;
+      int bottom = Math.max(store.y[i], store.prevY[i]) + store.height[i] + 3;
+      int first = Math.max(minTile, Math.floorDiv(top, tileHeight));
+      int last = Math.min(maxTile, Math.floorDiv(bottom - 1, tileHeight));
+      for (int t = first; t <= last; t++) {
+        if (tileCounts[t] == tileRows[t].length)
+          tileRows[t] = Arrays.copyOf(tileRows[t], tileCounts[t] * 2);
+        tileRows[t][tileCounts[t]++] = i;
+      }
+    }
+  }
+
+  /**
+   * Take tiles until there are none left, drawing each into its band of the image
+   * @param worker 	the worker's number, choosing its painter
+   */
+  private void drawTiles(int worker) {
+    ShapeStore.Painter painter = frameStore.getPainter(worker + 1);
+    painter.setSprites(sprites);
+    int t;
+    while ((t = nextTile.getAndIncrement()) < tiles) {
+      int top = t * tileHeight;
+      int bottom = Math.min(top + tileHeight, image.getHeight());
+      int clipTop = Math.max(top, frameClip.y), clipBottom = Math.min(bottom, frameClip.y + frameClip.height);
+      if (clipTop >= clipBottom)
+        continue;		// the tile is outside the area being drawn
+      Graphics2D g = image.createGraphics();
+      try {
+        g.clipRect(frameClip.x, clipTop, frameClip.width, clipBottom - clipTop);
+        g.setColor(frameBackground);
+        g.fillRect(frameClip.x, clipTop, frameClip.width, clipBottom - clipTop);
+        int[] rows = tileRows[t];
+        for (int k = 0; k < tileCounts[t]; k++)
+          painter.drawInterpolated(g, rows[k], frameAlpha);
+      } finally {
+        g.dispose();
+      }
+    }
+  }
+
+  /**
+   * Make an opaque image to draw frames in, in the screen's format if there is a screen
+   */
+  private static BufferedImage makeImage(Graphics g, int width, int height) {
+    if (g instanceof Graphics2D) {
+      GraphicsConfiguration gc = ((Graphics2D) g).getDeviceConfiguration();
+      if (gc != null && gc.getDevice().getType() != GraphicsDevice.TYPE_IMAGE_BUFFER)
+        return gc.createCompatibleImage(width, height, Transparency.OPAQUE);
+    }
+    return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  TrajectoryTable.java : The sine of every angle the swinging paths reach.
+ *  FallingPath, FlyingPath and the floating paths all swing by the same angle
+ *  each step, so after k steps their angle is exactly k * STEP. The sines of
+ *  those angles are computed once and shared by every shape; each shape then
+ *  only scales the looked-up sine by its own amplitude. The table holds the
+ *  values Math.sin returns, so paths round to the same positions as before.
+ *  ===============================================================================
+ */
+
+public final class TrajectoryTable {
+  public static final double STEP = 0.5;	// the angle swung through each step, in radians
+  public static final int SIZE = 1 << 16;	// the number of steps held in the table
+  private static final double[] SIN = new double[SIZE];	// the sine after each number of steps
+
+  static {
+    for (int k = 0; k < SIZE; k++)
+      SIN[k] = Math.sin(k * STEP);
+  }
+
+  /**
+   * No instances, the table is shared
+   */
+  private TrajectoryTable() { }
+
+  /**
+   * Return the sine of the angle after a number of steps.
+   * Steps past the end of the table are computed directly.
+   * @param step 	the number of steps taken, at least 0
+   * @return Math.sin(step * STEP)
+   */
+  public static double sin(int step) {
+    return step < SIZE ? SIN[step] : Math.sin(step * STEP);
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  VectorPathKernel.java : Steps the rows of a ShapeStore sixteen at a time
+ *  with the incubating Vector API. The straight-line part of every path is done
+ *  in the vector lanes: each lane adds its path's deltaX or deltaY, and masks
+ *  pick the lanes which wrap around the margins, or which reach a margin on the
+ *  boundary path and clamp to it and turn. The step counts and the pacman
+ *  mouths are also moved in the lanes. The swing of the swinging paths is then
+ *  added row by row, only for the lanes which swing, as it needs the sine table
+ *  and the exact rounding of Math.round; shapes on a SplineTrack are also moved
+ *  row by row, by a look-up in the track's table. Rows left over at the end are
+ *  moved by ShapeStore.moveRows, so the results are the same as moving every
+ *  row alone. The kernel needs 512-bit vectors; on smaller hardware the
+ *  constructor refuses and PathKernel.load() gives SCALAR instead.
+ *
+ *  To build and run: javac --add-modules jdk.incubator.vector VectorPathKernel.java
+ *  and java --add-modules jdk.incubator.vector ...; PathKernel.load() finds it.
+ *  ===============================================================================
+ */
+
+import jdk.incubator.vector.*;
+
+public class VectorPathKernel implements PathKernel {
+  private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_512;	// sixteen int lanes
+  private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_128;	// sixteen byte lanes, one for each int lane
+
+  /**
+   * Constructor to create the kernel, if the hardware has sixteen int lanes
+   * @throws UnsupportedOperationException if the lanes would be emulated, which is slower than SCALAR
+   */
+  public VectorPathKernel() {
+    if (IntVector.SPECIES_PREFERRED.vectorBitSize() < INTS.vectorBitSize())
+      throw new UnsupportedOperationException("no " + INTS.vectorBitSize() + "-bit vectors");
+  }
+
+  /**
+   * Move the shapes in a range of rows by one step
+   * @param store 	the shapes
+   * @param from 	the first row, inclusive
+   * @param to 	the last row, exclusive
+   */
+  public void move(ShapeStore store, int from, int to) {
+    int end = from + INTS.loopBound(to - from);
+    IntVector mw = IntVector.broadcast(INTS, store.getMarginWidth());
+    IntVector mh = IntVector.broadcast(INTS, store.getMarginHeight());
+    for (int i = from; i < end; i += INTS.length()) {
+      IntVector x = IntVector.fromArray(INTS, store.x, i), y = IntVector.fromArray(INTS, store.y, i);
+      x.intoArray(store.prevX, i);
+      y.intoArray(store.prevY, i);
+      IntVector w = IntVector.fromArray(INTS, store.width, i), h = IntVector.fromArray(INTS, store.height, i);
+      IntVector dx = IntVector.fromArray(INTS, store.deltaX, i), dy = IntVector.fromArray(INTS, store.deltaY, i);
+      IntVector path = (IntVector) ByteVector.fromArray(BYTES, store.pathType, i).convertShape(VectorOperators.B2I, INTS, 0);
+      IntVector dir = (IntVector) ByteVector.fromArray(BYTES, store.direction, i).convertShape(VectorOperators.B2I, INTS, 0);
+
+      // the floating paths move across and wrap around the sides, each checking the side it moves to first
+      VectorMask<Integer> side = path.eq(MovingShape.MovingPath.FLOATINGSIDEWAYS);
+      VectorMask<Integer> opp = path.eq(MovingShape.MovingPath.FLOATINGSIDEWAYSOPP);
+      IntVector nx = x.add(dx, side.or(opp));
+      IntVector left = w.neg();
+      VectorMask<Integer> pastRight = nx.compare(VectorOperators.GT, mw), pastLeft = nx.compare(VectorOperators.LT, left);
+      VectorMask<Integer> toLeft = pastRight.and(side.or(opp.andNot(pastLeft)));
+      VectorMask<Integer> toRight = pastLeft.and(opp.or(side.andNot(pastRight)));
+      nx = nx.blend(left, toLeft).blend(mw, toRight);
+
+      // the falling and flying paths move down and up and wrap around the top and bottom
+      VectorMask<Integer> fall = path.eq(MovingShape.MovingPath.FALLING);
+      VectorMask<Integer> fly = path.eq(MovingShape.MovingPath.FLYINGPATH);
+      IntVector ny = y.add(dy, fall).sub(dy, fly);
+      IntVector top = h.neg();
+      VectorMask<Integer> pastBottom = ny.compare(VectorOperators.GT, mh), pastTop = ny.compare(VectorOperators.LT, top);
+      VectorMask<Integer> toTop = pastBottom.and(fall.or(fly.andNot(pastTop)));
+      VectorMask<Integer> toBottom = pastTop.and(fly.or(fall.andNot(pastBottom)));
+      ny = ny.blend(0, toTop).blend(mh, toBottom);
+
+      // the boundary path moves one way until it passes a margin, then clamps and turns
+      VectorMask<Integer> boundary = path.eq(MovingShape.MovingPath.BOUNDARY);
+      VectorMask<Integer> down = boundary.and(dir.eq(0)), right = boundary.and(dir.eq(1));
+      VectorMask<Integer> up = boundary.and(dir.eq(2)), back = boundary.and(dir.eq(3));
+      IntVector maxX = mw.sub(w), maxY = mh.sub(h);
+      nx = nx.add(dx, right).sub(dx, back);
+      ny = ny.add(dy, down).sub(dy, up);
+      VectorMask<Integer> turnDown = down.and(ny.compare(VectorOperators.GT, maxY));
+      VectorMask<Integer> turnRight = right.and(nx.compare(VectorOperators.GT, maxX));
+      VectorMask<Integer> turnUp = up.and(ny.compare(VectorOperators.LT, 0));
+      VectorMask<Integer> turnBack = back.and(nx.compare(VectorOperators.LT, 0));
+      ny = ny.blend(maxY.sub(1), turnDown).blend(0, turnUp);
+      nx = nx.blend(maxX.sub(1), turnRight).blend(0, turnBack);
+      if (turnDown.or(turnRight).or(turnUp).or(turnBack).anyTrue()) {
+        IntVector turned = dir.blend(1, turnDown).blend(2, turnRight).blend(3, turnUp).blend(0, turnBack);
+        ((ByteVector) turned.convertShape(VectorOperators.I2B, BYTES, 0)).intoArray(store.direction, i);
+      }
+      nx.intoArray(store.x, i);
+      ny.intoArray(store.y, i);
+
+      // the swinging paths count their steps, and each pacman opens or closes its mouth by five degrees
+      VectorMask<Integer> swinging = fall.or(fly).or(side).or(opp);
+      IntVector.fromArray(INTS, store.step, i).add(1, swinging).intoArray(store.step, i);
+      IntVector type = (IntVector) ByteVector.fromArray(BYTES, store.type, i).convertShape(VectorOperators.B2I, INTS, 0);
+      VectorMask<Integer> pacman = type.eq(MovingShape.PACMAN);
+      if (pacman.anyTrue()) {
+        IntVector mouth = (IntVector) ByteVector.fromArray(BYTES, store.mouth, i).convertShape(VectorOperators.B2I, INTS, 0);
+        IntVector wasOpening = mouth.and(1);
+        IntVector start = mouth.lanewise(VectorOperators.ASHR, 1).add(wasOpening.mul(10)).sub(5);
+        IntVector opening = wasOpening.blend(1, start.eq(0)).blend(0, start.compare(VectorOperators.GT, 45));
+        ((ByteVector) mouth.blend(start.mul(2).add(opening), pacman).convertShape(VectorOperators.I2B, BYTES, 0)).intoArray(store.mouth, i);
+      }
+
+      // then the swing across the path and the spline tracks, row by row
+      if (swinging.or(path.compare(VectorOperators.GE, MovingShape.MovingPath.SPLINE)).anyTrue())
+        for (int k = i; k < i + INTS.length(); k++)
+          swing(store, k);
+    }
+    store.moveRows(end, to);
+  }
+
+  /**
+   * Return the name of the kernel, for reports
+   * @return the name
+   */
+  public String getName() {
+    return "vector" + INTS.length();
+  }
+
+  /**
+   * Swing a row across its path by its amplitude times the sine of its step, or move it along
+   * its SplineTrack, as ShapeStore.moveRows does
+   */
+  private static void swing(ShapeStore store, int k) {
+    switch (store.pathType[k]) {
+      case MovingShape.MovingPath.FALLING :
+      case MovingShape.MovingPath.FLYINGPATH :
+        store.x[k] = (int) Math.round(store.x[k] + store.amplitude[k] * TrajectoryTable.sin(store.step[k]));
+        break;
+      case MovingShape.MovingPath.FLOATINGSIDEWAYS :
+      case MovingShape.MovingPath.FLOATINGSIDEWAYSOPP :
+        store.y[k] = (int) Math.round(store.y[k] + store.amplitude[k] * TrajectoryTable.sin(store.step[k]));
+        break;
+      case MovingShape.MovingPath.BOUNDARY :
+        break;
+      default :
+        store.moveSpline(k);
+        break;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ *  Author: Joshua Parker
+ *
+ *  ===============================================================================
+ *  WorldSnapshot.java : The state of every shape after one simulation step,
+ *  as much as is needed to draw it. The simulation fills a snapshot and then
+ *  publishes it through a SnapshotBuffer, after which it is only read.
+ *  ===============================================================================
+ */
+
+import java.util.*;
+
+public class WorldSnapshot {
+  private ShapeStore shapes;		// the shapes as they were after the step
+  private long tick;				// the number of steps taken when the snapshot was made
+  private long time;				// the simulated time of the step, from System.nanoTime
+  private long stepNanos;			// the length of the step
+
+  /**
+   * Constructor to create an empty snapshot
+   */
+  public WorldSnapshot() {
+    shapes = new ShapeStore(0, 0, 0);
+  }
+
+  /**
+   * Fill the snapshot from the live shapes. Only the simulation thread may call this.
+   * @param list 	the shapes to copy
+   * @param t 		the tick count
+   * @param now 	the simulated time of the step
+   * @param step 	the length of one step in ns
+   */
+  public void copyFrom(List<MovingShape> list, long t, long now, long step) {
+    shapes.copyFrom(list);
+    tick = t;
+    time = now;
+    stepNanos = step;
+  }
+
+  /**
+   * Return the shapes in the snapshot
+   * @return the shapes, which must not be changed
+   */
+  public ShapeStore getShapes() { return shapes; }
+
+  /**
+   * Return the number of steps taken when the snapshot was made
+   * @return the tick count
+   */
+  public long getTick() { return tick; }
+
+  /**
+   * Return the simulated time of the step
+   * @return the time in ns, from System.nanoTime
+   */
+  public long getTime() { return time; }
+
+  /**
+   * Return how far a time is between this step and the next one
+   * @param now 	the time in ns, from System.nanoTime
+   * @return the interpolation fraction, from 0 to 1
+   */
+  public double getAlpha(long now) {
+    if (stepNanos <= 0)
+      return 1.0;
+    return Math.max(0.0, Math.min(1.0, (now - time) / (double) stepNanos));
+  }
+}